@@ -0,0 +1,163 @@
+package vax_interpreter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+/*
+ * Small synthetic a.out images for the benchmarks.
+ *
+ * Each image starts with an entry mask at 0, a prologue at 2 which sets
+ * r1 = 1, r2 = 2, r6 = Data and r7 = Data + 0x400, and then a loop
+ * starting at LoopStart which ends in a branch back to it.
+ */
+public final class Blobs {
+    public static final int LoopStart = 2 + 4 * 7;
+    public static final int Data = 0x8000;
+
+    private Blobs() {}
+
+    /*
+     * Loop body of the named opcode group.
+     */
+    public static byte[] group(String name) {
+        switch (name) {
+        case "mov":
+            return bytes(0xd0, 0x51, 0x52,                          // movl r1,r2
+                         0xd0, 0x05, 0x53,                          // movl $5,r3
+                         0xd0, 0x8f, 0x78, 0x56, 0x34, 0x12, 0x54,  // movl $0x12345678,r4
+                         0xd0, 0x66, 0x55,                          // movl (r6),r5
+                         0xd0, 0xa6, 0x04, 0x58,                    // movl 4(r6),r8
+                         0xd0, 0x52, 0x51,                          // movl r2,r1
+                         0xd0, 0x58, 0xa6, 0x08);                   // movl r8,8(r6)
+        case "add":
+            return bytes(0xc0, 0x51, 0x52,                          // addl2 r1,r2
+                         0xc1, 0x52, 0x53, 0x54,                    // addl3 r2,r3,r4
+                         0xc2, 0x51, 0x54,                          // subl2 r1,r4
+                         0xc0, 0x01, 0x55,                          // addl2 $1,r5
+                         0xd6, 0x58);                               // incl r8
+        case "br":
+            return bytes(0x11, 0x00,                                // brb .+2
+                         0x31, 0x00, 0x00,                          // brw .+3
+                         0xd5, 0x51,                                // tstl r1
+                         0x12, 0x00);                               // bneq .+2
+        case "callret":
+            return bytes(0xfb, 0x00, 0xef, 0x02, 0x00, 0x00, 0x00,  // calls $0,f
+                         0x11, 0x03,                                // brb over f
+                         0x00, 0x00,                                // f: entry mask
+                         0x04);                                     // ret
+        case "movc":
+            return bytes(0x28, 0x8f, 0x00, 0x01, 0x66, 0x67);       // movc3 $0x100,(r6),(r7)
+        default:
+            throw new IllegalArgumentException(name);
+        }
+    }
+
+    /*
+     * Instructions run per trip around the loop of group or operand
+     * name, including the closing branch.
+     */
+    public static int count(String name) {
+        switch (name) {
+        case "mov":
+            return 8;
+        case "add":
+            return 6;
+        case "br":
+            return 5;
+        case "callret":
+            return 4;
+        case "movc":
+            return 2;
+        default:
+            return 9;   // operand loops
+        }
+    }
+
+    /*
+     * Loop body of 8 "movl <src>,r3" with the named source specifier.
+     */
+    public static byte[] operand(String mode) {
+        byte[] spec;
+        switch (mode) {
+        case "register":
+            spec = bytes(0x51);                         // r1
+            break;
+        case "literal":
+            spec = bytes(0x05);                         // $5
+            break;
+        case "immediate":
+            spec = bytes(0x8f, 0x78, 0x56, 0x34, 0x12); // $0x12345678
+            break;
+        case "deferred":
+            spec = bytes(0x66);                         // (r6)
+            break;
+        case "displacement":
+            spec = bytes(0xa6, 0x04);                   // 4(r6)
+            break;
+        case "absolute":
+            spec = bytes(0x9f, Data & 0xff, Data >> 8 & 0xff, 0, 0);  // *$Data
+            break;
+        case "index":
+            spec = bytes(0x41, 0x66);                   // (r6)[r1]
+            break;
+        default:
+            throw new IllegalArgumentException(mode);
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(8 * (spec.length + 2));
+        for (int i = 0; i < 8; i++) {
+            body.put((byte)0xd0).put(spec).put((byte)0x53);
+        }
+        return body.array();
+    }
+
+    /*
+     * Write an a.out running body in a loop, and return its path.
+     */
+    public static String aout(byte[] body) throws IOException {
+        ByteBuffer text = ByteBuffer.allocate(LoopStart + body.length + 2).order(ByteOrder.LITTLE_ENDIAN);
+        text.putShort((short)0);                        // entry mask
+        movl(text, 1, 0x51);
+        movl(text, 2, 0x52);
+        movl(text, Data, 0x56);
+        movl(text, Data + 0x400, 0x57);
+        text.put(body);
+        int disp = LoopStart - (text.position() + 2);
+        if (disp < -128) {
+            throw new IllegalArgumentException("loop too long");
+        }
+        text.put((byte)0x11).put((byte)disp);           // brb LoopStart
+
+        ByteBuffer file = ByteBuffer.allocate(32 + text.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(0410);                              // a_magic
+        file.putInt(text.capacity());                   // a_text
+        file.putInt(0);                                 // a_data
+        file.putInt(0x10000);                           // a_bss, covers Data
+        file.putInt(0);                                 // a_syms
+        file.putInt(2);                                 // a_entry
+        file.putInt(0);                                 // a_trsize
+        file.putInt(0);                                 // a_drsize
+        file.put(text.array());
+
+        File f = File.createTempFile("blob", ".out");
+        f.deleteOnExit();
+        Files.write(f.toPath(), file.array());
+        return f.getPath();
+    }
+
+    // movl $val,reg with a longword immediate: 7 bytes
+    private static void movl(ByteBuffer text, int val, int reg) {
+        text.put((byte)0xd0).put((byte)0x8f).putInt(val).put((byte)reg);
+    }
+
+    private static byte[] bytes(int... b) {
+        byte[] ret = new byte[b.length];
+        for (int i = 0; i < b.length; i++) {
+            ret[i] = (byte)b[i];
+        }
+        return ret;
+    }
+}
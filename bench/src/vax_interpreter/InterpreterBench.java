@@ -0,0 +1,145 @@
+package vax_interpreter;
+
+import java.util.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import static vax_interpreter.Util.*;
+import static vax_interpreter.Kernel.Constant.*;
+
+/*
+ * Hot paths of the interpreter, run on the loops of Blobs.
+ *
+ * The scores are per guest instruction (per syscall for the syscall
+ * benchmarks). Run with -prof gc for the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBench {
+    // a whole number of trips around every loop of Blobs
+    static final int Instructions = 360;
+
+    /*
+     * A process stopped at the top of the loop of an image.
+     */
+    static Context load(byte[] body) throws IOException {
+        Console console = new Console(Channels.newChannel(InputStream.nullInputStream()),
+                                      Channels.newChannel(OutputStream.nullOutputStream()),
+                                      Channels.newChannel(OutputStream.nullOutputStream()));
+        Context context = new Context(new Job(console.stdio(), System.getProperty("java.io.tmpdir")));
+        String path = Blobs.aout(body);
+        if (!context.memory.loadTextfile(path)) {
+            throw new IOException("can't load " + path);
+        }
+        context.memory.setArgs(Arrays.asList(path));
+        while (context.pc() != Blobs.LoopStart) {
+            Instruction.fetch(context).execute(context);
+        }
+        return context;
+    }
+
+    // as Process.run, for n instructions
+    static void interpret(Context context, int n) {
+        for (int i = 0; i < n; i++) {
+            Instruction.fetch(context).execute(context);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Group {
+        @Param({"mov", "add", "br", "callret", "movc"})
+        public String group;
+
+        Context context;
+
+        @Setup
+        public void setup() throws IOException {
+            context = load(Blobs.group(group));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Operands {
+        @Param({"register", "literal", "immediate", "deferred", "displacement", "absolute", "index"})
+        public String mode;
+
+        Context context;
+
+        @Setup
+        public void setup() throws IOException {
+            context = load(Blobs.operand(mode));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Syscalls {
+        static final int Count = 512;
+        static final int ArgList = Blobs.Data + 0x800;
+        static final int Buffer = Blobs.Data + 0x1000;
+
+        Context context;
+        int fd;
+
+        @Setup
+        public void setup() throws IOException {
+            context = load(Blobs.group("br"));
+            File f = File.createTempFile("read", ".dat");
+            f.deleteOnExit();
+            Files.write(f.toPath(), new byte[0x10000]);
+            fd = context.u.fileOpen(f.getPath(), FREAD);
+        }
+
+        void call(int code, int fd) {
+            context.memory.storeInt(ArgList, 3, DataType.L);
+            context.memory.storeInt(ArgList + 4, fd, DataType.L);
+            context.memory.storeInt(ArgList + 8, Buffer, DataType.L);
+            context.memory.storeInt(ArgList + 12, Count, DataType.L);
+            context.register[AP] = ArgList;
+            Kernel.syscall(code, context);
+        }
+    }
+
+    /*
+     * Decode cache lookup and operand evaluation of one instruction.
+     */
+    @Benchmark
+    public Instruction fetch(Group s) {
+        s.context.register[PC] = Blobs.LoopStart;
+        return Instruction.fetch(s.context);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Instructions)
+    public void execute(Group s) {
+        interpret(s.context, Instructions);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Instructions)
+    public void operand(Operands s) {
+        interpret(s.context, Instructions);
+    }
+
+    @Benchmark
+    public int read(Syscalls s) {
+        s.call(3, s.fd);
+        if (s.context.register[0] == 0) {
+            s.context.u.fileSeek(s.fd, 0, 0);
+        }
+        return s.context.register[0];
+    }
+
+    @Benchmark
+    public int write(Syscalls s) {
+        s.call(4, 1);
+        return s.context.register[0];
+    }
+}
@@ -0,0 +1,46 @@
+package vaxrun;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import vax_interpreter.Blobs;
+
+/*
+ * VAX.step of vaxrun on the same loops as the interpreter benchmarks.
+ * The scores are per guest instruction. vaxrun has no MOVC3, so that
+ * group is left out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VAXBench {
+    // a whole number of trips around every loop of Blobs
+    static final int Instructions = 360;
+
+    @State(Scope.Thread)
+    public static class Image {
+        @Param({"mov", "add", "br", "callret"})
+        public String group;
+
+        VAX vax;
+
+        @Setup
+        public void setup() throws Exception {
+            String path = Blobs.aout(Blobs.group(group));
+            vax = new VAX(new AOut(path), new String[] {path});
+            // prologue
+            for (int i = 0; i < 4; i++) {
+                vax.step();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Instructions)
+    public void step(Image s) throws Exception {
+        for (int i = 0; i < Instructions; i++) {
+            s.vax.step();
+        }
+    }
+}
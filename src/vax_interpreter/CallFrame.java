@@ -0,0 +1,42 @@
+package vax_interpreter;
+
+/*
+ * The frame CALLG and CALLS build for a procedure, decoded from its
+ * entry mask once instead of on every call.
+ *
+ * The registers a mask saves are listed lowest first, which is their
+ * order from the bottom of the frame up and the order RET restores
+ * them in. The lists are shared by all procedures with the same 12
+ * mask bits.
+ */
+class CallFrame {
+    /* the condition handler, the saved PSW, AP, FP and PC */
+    static final int FixedSize = 20;
+
+    private static final int[][] savedLists = new int[0x1000][];
+    static {
+        for (int mask = 0; mask < savedLists.length; mask++) {
+            int[] saved = new int[Integer.bitCount(mask)];
+            for (int i = 0, n = 0; i < 12; i++) {
+                if ((mask & 1 << i) != 0) {
+                    saved[n++] = i;
+                }
+            }
+            savedLists[mask] = saved;
+        }
+    }
+
+    final int entryMask;
+    final int[] saved;
+    final int size;         // bytes below the longword aligned SP
+
+    CallFrame(int entryMask) {
+        this.entryMask = entryMask;
+        this.saved = saved(entryMask);
+        this.size = FixedSize + saved.length * 4;
+    }
+
+    static int[] saved(int mask) {
+        return savedLists[mask & 0xfff];
+    }
+}
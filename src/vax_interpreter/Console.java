@@ -0,0 +1,159 @@
+package vax_interpreter;
+
+import java.util.*;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import static vax_interpreter.Kernel.Constant.*;
+
+/*
+ * Standard files of a job.
+ *
+ * Writes to stdout and stderr are collected in one buffer, so that they
+ * keep their relative order, and handed to the host in large writes.
+ * The buffer is flushed when it fills up, before stdin is read, when a
+ * process flushes its files on exit or exec, and once output has been
+ * idle for a moment.
+ */
+class Console {
+    private static final int Size = 0x10000;
+    private static final long IdleNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final ScheduledExecutorService timer =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "console flusher");
+            t.setDaemon(true);
+            return t;
+        });
+
+    private final ReadableByteChannel in;
+    private final WritableByteChannel[] sinks;
+    private final byte[] buf = new byte[Size];
+    private int len;
+    // runs of buf written to the same sink: {sink index, end}
+    private final List<int[]> runs = new ArrayList<>();
+    private long firstWrite;
+    private long lastWrite;
+    private boolean isScheduled;
+
+    Console(ReadableByteChannel in, WritableByteChannel out, WritableByteChannel err) {
+        this.in = in;
+        this.sinks = new WritableByteChannel[] {out, err};
+    }
+
+    /*
+     * FileItems for fd 0, 1 and 2.
+     */
+    public FileItem[] stdio() {
+        return new FileItem[] {
+            FileItem.fromChannel(new Input(), FREAD),
+            FileItem.fromChannel(new Output(0), FWRITE),
+            FileItem.fromChannel(new Output(1), FWRITE)
+        };
+    }
+
+    public synchronized void flush() throws IOException {
+        int start = 0;
+        for (int[] run : runs) {
+            ByteBuffer b = ByteBuffer.wrap(buf, start, run[1] - start);
+            while (b.hasRemaining()) {
+                sinks[run[0]].write(b);
+            }
+            start = run[1];
+        }
+        runs.clear();
+        len = 0;
+    }
+
+    private synchronized int append(int sink, ByteBuffer src) throws IOException {
+        int n = src.remaining();
+        if (len + n > Size) {
+            flush();
+        }
+        if (n > Size) {
+            while (src.hasRemaining()) {
+                sinks[sink].write(src);
+            }
+            return n;
+        }
+
+        src.get(buf, len, n);
+        len += n;
+        int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+        if (last != null && last[0] == sink) {
+            last[1] = len;
+        } else {
+            runs.add(new int[] {sink, len});
+        }
+
+        lastWrite = System.nanoTime();
+        if (!isScheduled) {
+            firstWrite = lastWrite;
+            isScheduled = true;
+            timer.schedule(this::flushIfIdle, IdleNanos, TimeUnit.NANOSECONDS);
+        }
+        return n;
+    }
+
+    private synchronized void flushIfIdle() {
+        if (len == 0) {
+            isScheduled = false;
+            return;
+        }
+        long now = System.nanoTime();
+        long deadline = Math.min(lastWrite + IdleNanos, firstWrite + MaxDelayNanos);
+        if (now < deadline) {
+            timer.schedule(this::flushIfIdle, deadline - now, TimeUnit.NANOSECONDS);
+            return;
+        }
+        isScheduled = false;
+        try {
+            flush();
+        } catch (IOException e) {
+            // the host side has gone; nothing to report to
+        }
+    }
+
+    class Input implements ReadableByteChannel {
+        @Override public int read(ByteBuffer dst) throws IOException {
+            flush();
+            return in.read(dst);
+        }
+
+        @Override public boolean isOpen() {
+            return in.isOpen();
+        }
+
+        @Override public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    class Output implements WritableByteChannel, Flushable {
+        private final int sink;
+
+        Output(int sink) {
+            this.sink = sink;
+        }
+
+        @Override public int write(ByteBuffer src) throws IOException {
+            return append(sink, src);
+        }
+
+        @Override public void flush() throws IOException {
+            Console.this.flush();
+        }
+
+        @Override public boolean isOpen() {
+            return sinks[sink].isOpen();
+        }
+
+        // the host stream stays open for the interpreter's own messages
+        @Override public void close() throws IOException {
+            Console.this.flush();
+        }
+    }
+}
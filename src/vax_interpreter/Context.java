@@ -2,6 +2,7 @@ package vax_interpreter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.util.*;
 import java.nio.ByteBuffer;
@@ -13,9 +14,13 @@ import vax_interpreter.Kernel.Proc;
 
 class Context {
     public int[] register = new int[16];
-    public int psl;
+    private int psl;
     public final Memory memory;
     public final User u;
+    public Profiler profiler;   // null unless profiling
+    public SyscallLog.Stream log;   // null unless recording or replaying
+    public Trace trace;         // null unless tracing
+    public boolean debug;       // print every instruction run
 
     public Flag flagC = new Flag(0);
     public Flag flagV = new Flag(1);
@@ -26,23 +31,131 @@ class Context {
     public Flag flagFU = new Flag(6);
     public Flag flagDV = new Flag(7);
 
+    /*
+     * Lazy condition codes.
+     * The common ALU operations only record what they computed here,
+     * and N, Z, V and C in psl are brought up to date when a flag is
+     * read or written individually, or when psl itself is accessed.
+     */
+    static final int CC_NONE = 0;
+    static final int CC_LOGIC = 1;  // N, Z from result; V cleared; C unchanged
+    static final int CC_TST = 2;    // N, Z from result; V, C cleared
+    static final int CC_ADD = 3;    // result = arg1 + arg2
+    static final int CC_SUB = 4;    // result = arg1 - arg2
+    static final int CC_CMP = 5;    // arg1 compared with arg2
+    private static final int NZVC = 0xf;
 
-    public Context() {
+    private int ccOp = CC_NONE;
+    private int ccResult;
+    private int ccArg1;
+    private int ccArg2;
+    private DataType ccType;
+
+    public Context(Job job) {
         memory = new Memory();
-        u = new User();
+        u = new User(job);
     }
 
-    public Context(Context src) {
+    public Context(Context src, Proc proc) {
         System.arraycopy(src.register, 0, register, 0, register.length);
-        psl = src.psl;
+        psl = src.getPsl();
         memory = new Memory(src.memory);
-        u = new User(src.u);
+        u = new User(src.u, proc);
     }
 
     public int pc() {
         return register[PC];
     }
 
+    public int getPsl() {
+        evalFlags();
+        return psl;
+    }
+
+    public void setPsl(int val) {
+        ccOp = CC_NONE;
+        psl = val;
+    }
+
+    /*
+     * Record the flags of a move or logical operation. B and W results
+     * are expected sign-extended.
+     */
+    public void setLogicFlags(int result) {
+        if (ccOp != CC_NONE) {
+            // C survives, so take it from the pending operation first
+            psl = (psl & ~flagC.mask) | (pendingCarry() ? flagC.mask : 0);
+        }
+        ccOp = CC_LOGIC;
+        ccResult = result;
+    }
+
+    public void setTestFlags(int result) {
+        ccOp = CC_TST;
+        ccResult = result;
+    }
+
+    public void setArithFlags(int op, int result, int arg1, int arg2, DataType type) {
+        ccOp = op;
+        ccResult = result;
+        ccArg1 = arg1;
+        ccArg2 = arg2;
+        ccType = type;
+    }
+
+    private boolean pendingCarry() {
+        switch (ccOp) {
+        case CC_LOGIC:
+            return (psl & flagC.mask) != 0;
+        case CC_ADD:
+            return (Calculator.zeroExtend(ccArg1, ccType) & 0xffffffffL) +
+                   (Calculator.zeroExtend(ccArg2, ccType) & 0xffffffffL) >
+                   (Calculator.zeroExtend(-1, ccType) & 0xffffffffL);
+        case CC_SUB:
+        case CC_CMP:
+            return (Calculator.zeroExtend(ccArg1, ccType) & 0xffffffffL) <
+                   (Calculator.zeroExtend(ccArg2, ccType) & 0xffffffffL);
+        default:
+            return false;
+        }
+    }
+
+    private void evalFlags() {
+        if (ccOp == CC_NONE) {
+            return;
+        }
+
+        boolean n, z, v;
+        switch (ccOp) {
+        case CC_ADD:
+            n = ccResult < 0;
+            z = ccResult == 0;
+            v = (ccArg1 < 0) == (ccArg2 < 0) && (ccArg1 < 0) != n;
+            break;
+        case CC_SUB:
+            n = ccResult < 0;
+            z = ccResult == 0;
+            v = (ccArg1 < 0) != (ccArg2 < 0) && (ccArg1 < 0) != n;
+            break;
+        case CC_CMP:
+            n = ccArg1 < ccArg2;
+            z = ccArg1 == ccArg2;
+            v = false;
+            break;
+        default:
+            n = ccResult < 0;
+            z = ccResult == 0;
+            v = false;
+            break;
+        }
+        boolean c = pendingCarry();
+        ccOp = CC_NONE;
+
+        psl = (psl & ~NZVC) |
+              (n ? flagN.mask : 0) | (z ? flagZ.mask : 0) |
+              (v ? flagV.mask : 0) | (c ? flagC.mask : 0);
+    }
+
     public IntData getRegisterValue(int regNum, DataType type) {
         if (type.size >= 4) {
             ByteBuffer bbuf = ByteBuffer.allocate(type.size).order(ByteOrder.LITTLE_ENDIAN);
@@ -76,24 +189,19 @@ class Context {
     }
 
     public void push(int val) {
-        push(new IntData(val));
-    }
-
-    public void push(IntData val) {
-        assert val.size() == 4 : "Invalid stack push";
         register[SP] -= 4;
-        memory.store(register[SP], val);
+        memory.storeInt(register[SP], val, DataType.L);
     }
 
     public int pop() {
-        IntData val = memory.load(register[SP], DataType.L);
+        int val = memory.loadInt(register[SP], DataType.L);
         register[SP] += 4;
-        return val.sint();
+        return val;
     }
 
     public int readText() {
         if (pc() < memory.textSize) {
-            return memory.load(register[PC]++, DataType.B).uint();
+            return memory.loadInt(register[PC]++, DataType.B) & 0xff;
         } else {
             return -1;
         }
@@ -101,23 +209,134 @@ class Context {
 
     public int lookAhead() {
         if (pc() < memory.textSize) {
-            return memory.load(pc(), DataType.B).uint();
+            return memory.loadInt(pc(), DataType.B) & 0xff;
         } else {
             return -1;
         }
     }
 
+    /*
+     * A fixed-size piece of guest memory.
+     * After fork a page is shared by the memories of parent and child
+     * until one of them writes to it and takes a private copy.
+     */
+    static class Page {
+        static final int Shift = 12;
+        static final int Size = 1 << Shift;
+        static final int Mask = Size - 1;
+
+        // shared by all unused pages, never written
+        static final Page Zero = new Page();
+
+        final byte[] data;
+        final ByteBuffer buf;
+        private int refCount = 1;
+
+        Page() {
+            this(new byte[Size]);
+        }
+
+        private Page(byte[] data) {
+            this.data = data;
+            this.buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        synchronized void share() {
+            ++refCount;
+        }
+
+        synchronized void release() {
+            --refCount;
+        }
+
+        /*
+         * Return a page the caller may write to: this page if nobody
+         * else refers to it any more, a copy of it otherwise.
+         */
+        synchronized Page own() {
+            if (this == Zero) {
+                return new Page();
+            }
+            if (refCount == 1) {
+                return this;
+            }
+            Page copy = new Page(data.clone());
+            --refCount;
+            return copy;
+        }
+    }
+
     class Memory {
-        private final byte[] mem = new byte[MEM_SIZE];
+        private static final int NPages = MEM_SIZE >> Page.Shift;
+        private final Page[] pages = new Page[NPages];
+        private final ByteBuffer[] bufs = new ByteBuffer[NPages];
+        // buffers of the pages known to be referred by this memory only
+        private final ByteBuffer[] writableBufs = new ByteBuffer[NPages];
         public int textSize;
+        private int breakAddr;
+        private Instruction[] decoded = new Instruction[0];
+        private CallFrame[] frames = new CallFrame[0];
         private static final int AoutHeaderSize = 32;
         private static final int SegUnitSize = 0x200;
 
-        Memory() {}
+        Memory() {
+            clear();
+        }
 
         Memory(Memory srcMem) {
-            System.arraycopy(srcMem.mem, 0, mem, 0, mem.length);
+            for (int i = 0; i < NPages; i++) {
+                pages[i] = srcMem.pages[i];
+                bufs[i] = pages[i].buf;
+                if (pages[i] != Page.Zero) {
+                    pages[i].share();
+                }
+                srcMem.writableBufs[i] = null;
+            }
             textSize = srcMem.textSize;
+            breakAddr = srcMem.breakAddr;
+            // decoded operands are bound to their context, so start afresh
+            decoded = new Instruction[textSize];
+            // frames only depend on the text, which is the same
+            frames = srcMem.frames;
+        }
+
+        /*
+         * Drop the references to all pages, e.g. on exit, so that
+         * processes still sharing them need not copy.
+         */
+        public void release() {
+            for (int i = 0; i < NPages; i++) {
+                if (pages[i] != null && pages[i] != Page.Zero) {
+                    pages[i].release();
+                }
+                pages[i] = null;
+                bufs[i] = null;
+                writableBufs[i] = null;
+            }
+        }
+
+        // map every page to the zero page
+        private void clear() {
+            for (int i = 0; i < NPages; i++) {
+                pages[i] = Page.Zero;
+                bufs[i] = Page.Zero.buf;
+                writableBufs[i] = null;
+            }
+        }
+
+        private void setPage(int n, Page p) {
+            pages[n] = p;
+            bufs[n] = p.buf;
+            writableBufs[n] = p.buf;
+        }
+
+        private ByteBuffer writableBuf(int n) {
+            ByteBuffer b = writableBufs[n];
+            if (b == null) {
+                setPage(n, pages[n].own());
+                b = writableBufs[n];
+            }
+            return b;
         }
 
         public void setArgs(List<String> argStrs) {
@@ -130,19 +349,19 @@ class Context {
             int ucp = MEM_SIZE - nChars - NBPW;
             int ap = ucp - (argStrs.size() + 3) * NBPW;
             register[SP] = ap;
-            store(ap, new IntData(argStrs.size()));
+            storeInt(ap, argStrs.size(), DataType.L);
             ap += NBPW;
             for (String str: argStrs) {
-                store(ap, new IntData(ucp));
+                storeInt(ap, ucp, DataType.L);
                 ap += NBPW;
                 byte[] strb = str.getBytes(StandardCharsets.US_ASCII);
                 byte[] arg = Arrays.copyOf(strb, strb.length + 1);
                 storeBytes(ucp, arg, arg.length);
                 ucp += arg.length;
             }
-            store(ap, new IntData(0));
+            storeInt(ap, 0, DataType.L);
             ap += NBPW;
-            store(ucp, new IntData(0));
+            storeInt(ucp, 0, DataType.L);
 
             register[PC] = 2; /* skip over entry mask */
         }
@@ -153,6 +372,10 @@ class Context {
             }
         }
 
+        public boolean loadImage(byte[] image) throws IOException {
+            return loadAout(new ByteArrayInputStream(image));
+        }
+
         private boolean loadAout(InputStream in) throws IOException {
             byte[] header = new byte[AoutHeaderSize];
             if (!readUntil(in, header, 0, AoutHeaderSize)) {
@@ -166,20 +389,30 @@ class Context {
             }
             int tsize = bbuf.getInt();
             int dsize = bbuf.getInt();
+            int bsize = bbuf.getInt();
 
-            if (!readUntil(in, mem, 0, tsize)) {
+            byte[] text = new byte[tsize];
+            if (!readUntil(in, text, 0, tsize)) {
                 return false;
             }
-
-            int tsegSize = ((tsize + SegUnitSize - 1) / SegUnitSize) * SegUnitSize;
-            if (!readUntil(in, mem, tsegSize, dsize)) {
+            byte[] data = new byte[dsize];
+            if (!readUntil(in, data, 0, dsize)) {
                 return false;
             }
 
-            // clear bss and stack
-            Arrays.fill(mem, tsegSize + dsize, MEM_SIZE, (byte)0);
+            // a new image never shares pages with the old one,
+            // and untouched pages read as zero for bss and stack
+            release();
+            clear();
+
+            int tsegSize = ((tsize + SegUnitSize - 1) / SegUnitSize) * SegUnitSize;
+            storeBytes(0, text, tsize);
+            storeBytes(tsegSize, data, dsize);
+            breakAddr = tsegSize + dsize + bsize;
 
             textSize = tsize;
+            decoded = new Instruction[tsize];
+            frames = new CallFrame[tsize];
             return true;
         }
 
@@ -195,27 +428,363 @@ class Context {
             return true;
         }
 
+        /*
+         * Move the end of the data segment. Pages wholly above a lowered
+         * break go back to the zero page, and the rest of the page holding
+         * the break is cleared, so memory reads as zero when it grows again.
+         */
+        public boolean setBreak(int addr) {
+            if (addr < breakAddr) {
+                if (addr < textSize) {
+                    return false;
+                }
+                int firstFree = (addr + Page.Mask) >>> Page.Shift;
+                int lastUsed = (breakAddr - 1) >>> Page.Shift;
+                for (int n = firstFree; n <= lastUsed; n++) {
+                    if (pages[n] != Page.Zero) {
+                        pages[n].release();
+                    }
+                    pages[n] = Page.Zero;
+                    bufs[n] = Page.Zero.buf;
+                    writableBufs[n] = null;
+                }
+                if ((addr & Page.Mask) != 0) {
+                    int end = Math.min(firstFree << Page.Shift, breakAddr);
+                    storeBytes(addr, new byte[end - addr], end - addr);
+                }
+            } else if (addr > MEM_SIZE - MAX_STACK) {
+                return false;
+            }
+            breakAddr = addr;
+            return true;
+        }
+
+        /*
+         * Decode cache of the text segment, indexed by PC.
+         * The text of a 0410 image is read-only, so entries stay valid
+         * until the next image is loaded by exece.
+         */
+        public Instruction getDecoded(int pc) {
+            if (0 <= pc && pc < decoded.length) {
+                return decoded[pc];
+            }
+            return null;
+        }
+
+        public void putDecoded(int pc, Instruction ins) {
+            if (0 <= pc && pc < decoded.length) {
+                decoded[pc] = ins;
+            }
+        }
+
+        /*
+         * The frame of the procedure at addr, cached like decoded
+         * instructions when it is in the text segment.
+         */
+        public CallFrame getFrame(int addr) {
+            if (0 <= addr && addr < frames.length) {
+                CallFrame frame = frames[addr];
+                if (frame == null) {
+                    frame = new CallFrame(loadInt(addr, DataType.W) & 0xffff);
+                    frames[addr] = frame;
+                }
+                return frame;
+            }
+            return new CallFrame(loadInt(addr, DataType.W) & 0xffff);
+        }
+
+        /*
+         * The buffer of the page holding all of [addr, addr + size), or
+         * null when the range runs into the next page. This lets a call
+         * or a return move its frame with one page lookup.
+         */
+        public ByteBuffer bufInPage(int addr, int size) {
+            if ((addr & Page.Mask) + size > Page.Size) {
+                return null;
+            }
+            return bufs[addr >>> Page.Shift];
+        }
+
+        public ByteBuffer writableBufInPage(int addr, int size) {
+            if ((addr & Page.Mask) + size > Page.Size) {
+                return null;
+            }
+            return writableBuf(addr >>> Page.Shift);
+        }
+
         public IntData load(int addr, DataType type) {
-            return new IntData(Arrays.copyOfRange(mem, addr, addr + type.size),
-                               type);
+            return new IntData(loadBytes(addr, type.size), type);
         }
 
         public void store(int addr, IntData val) {
-            System.arraycopy(val.bytes(), 0, mem, addr, val.size());
+            storeBytes(addr, val.bytes(), val.size());
+        }
+
+        /*
+         * Primitive accessors for B, W, L (and F) sized data.
+         * Loaded values are sign-extended.
+         */
+        public int loadInt(int addr, DataType type) {
+            int off = addr & Page.Mask;
+            if (off + type.size > Page.Size) {
+                return (int)loadAcross(addr, type.size);
+            }
+            ByteBuffer b = bufs[addr >>> Page.Shift];
+            switch (type.size) {
+            case 1:
+                return b.get(off);
+            case 2:
+                return b.getShort(off);
+            default:
+                return b.getInt(off);
+            }
+        }
+
+        public void storeInt(int addr, int val, DataType type) {
+            int off = addr & Page.Mask;
+            if (off + type.size > Page.Size) {
+                storeAcross(addr, val, type.size);
+                return;
+            }
+            ByteBuffer b = writableBuf(addr >>> Page.Shift);
+            switch (type.size) {
+            case 1:
+                b.put(off, (byte)val);
+                break;
+            case 2:
+                b.putShort(off, (short)val);
+                break;
+            default:
+                b.putInt(off, val);
+                break;
+            }
+        }
+
+        /*
+         * Primitive accessors for Q (and D, G) sized data.
+         */
+        public long loadLong(int addr) {
+            int off = addr & Page.Mask;
+            if (off + 8 > Page.Size) {
+                return loadAcross(addr, 8);
+            }
+            return bufs[addr >>> Page.Shift].getLong(off);
+        }
+
+        public void storeLong(int addr, long val) {
+            int off = addr & Page.Mask;
+            if (off + 8 > Page.Size) {
+                storeAcross(addr, val, 8);
+                return;
+            }
+            writableBuf(addr >>> Page.Shift).putLong(off, val);
+        }
+
+        // little-endian value of size bytes crossing a page boundary, sign-extended
+        private long loadAcross(int addr, int size) {
+            long val = 0;
+            for (int i = size - 1; i >= 0; i--) {
+                int a = addr + i;
+                val = val << 8 | (bufs[a >>> Page.Shift].get(a & Page.Mask) & 0xff);
+            }
+            int shift = 64 - size * 8;
+            return val << shift >> shift;
+        }
+
+        private void storeAcross(int addr, long val, int size) {
+            for (int i = 0; i < size; i++, val >>= 8) {
+                int a = addr + i;
+                writableBuf(a >>> Page.Shift).put(a & Page.Mask, (byte)val);
+            }
         }
 
         public byte[] loadBytes(int addr, int size) {
-            return Arrays.copyOfRange(mem, addr, addr + size);
+            byte[] bytes = new byte[size];
+            for (int done = 0; done < size; ) {
+                int a = addr + done;
+                int off = a & Page.Mask;
+                int n = Math.min(size - done, Page.Size - off);
+                System.arraycopy(bufs[a >>> Page.Shift].array(), off, bytes, done, n);
+                done += n;
+            }
+            return bytes;
         }
 
         public void storeBytes(int addr, byte[] val, int size) {
-            System.arraycopy(val, 0, mem, addr, size);
+            for (int done = 0; done < size; ) {
+                int a = addr + done;
+                int off = a & Page.Mask;
+                int n = Math.min(size - done, Page.Size - off);
+                System.arraycopy(val, done, writableBuf(a >>> Page.Shift).array(), off, n);
+                done += n;
+            }
+        }
+
+        /*
+         * Copy len bytes from src to dst as if through a temporary buffer,
+         * a page run at a time. The destination page is made private
+         * before the source is looked up, in case they are the same.
+         */
+        public void moveBytes(int src, int dst, int len) {
+            if (dst - src > 0 && dst - src < len) {
+                // overlapping, from the end
+                for (int left = len; left > 0; ) {
+                    int s = src + left - 1;
+                    int d = dst + left - 1;
+                    int n = Math.min(left, Math.min((s & Page.Mask) + 1, (d & Page.Mask) + 1));
+                    byte[] to = writableBuf(d >>> Page.Shift).array();
+                    byte[] from = bufs[s >>> Page.Shift].array();
+                    System.arraycopy(from, (s & Page.Mask) - n + 1, to, (d & Page.Mask) - n + 1, n);
+                    left -= n;
+                }
+                return;
+            }
+            for (int done = 0; done < len; ) {
+                int s = src + done;
+                int d = dst + done;
+                int n = Math.min(len - done,
+                                 Math.min(Page.Size - (s & Page.Mask), Page.Size - (d & Page.Mask)));
+                byte[] to = writableBuf(d >>> Page.Shift).array();
+                byte[] from = bufs[s >>> Page.Shift].array();
+                System.arraycopy(from, s & Page.Mask, to, d & Page.Mask, n);
+                done += n;
+            }
+        }
+
+        public void fillBytes(int addr, int len, byte val) {
+            for (int done = 0; done < len; ) {
+                int a = addr + done;
+                int off = a & Page.Mask;
+                int n = Math.min(len - done, Page.Size - off);
+                Arrays.fill(writableBuf(a >>> Page.Shift).array(), off, off + n, val);
+                done += n;
+            }
+        }
+
+        /*
+         * Offset of the first byte differing between [addr1, addr1 + len)
+         * and [addr2, addr2 + len), or len if they are equal.
+         */
+        public int mismatch(int addr1, int addr2, int len) {
+            for (int done = 0; done < len; ) {
+                int a1 = addr1 + done;
+                int a2 = addr2 + done;
+                int off1 = a1 & Page.Mask;
+                int off2 = a2 & Page.Mask;
+                int n = Math.min(len - done, Math.min(Page.Size - off1, Page.Size - off2));
+                int i = Arrays.mismatch(bufs[a1 >>> Page.Shift].array(), off1, off1 + n,
+                                        bufs[a2 >>> Page.Shift].array(), off2, off2 + n);
+                if (i >= 0) {
+                    return done + i;
+                }
+                done += n;
+            }
+            return len;
+        }
+
+        /*
+         * Offset of the first byte of [addr, addr + len) which is val
+         * (or is not val, if equal is false), or len if there is none.
+         * Eight bytes are tested at a time.
+         */
+        public int scanBytes(int addr, int len, int val, boolean equal) {
+            final long Ones = 0x0101010101010101L;
+            long pattern = (val & 0xff) * Ones;
+            for (int done = 0; done < len; ) {
+                int a = addr + done;
+                int off = a & Page.Mask;
+                int n = Math.min(len - done, Page.Size - off);
+                ByteBuffer b = bufs[a >>> Page.Shift];
+                int i = 0;
+                for (; i + 8 <= n; i += 8) {
+                    long x = b.getLong(off + i) ^ pattern;
+                    if (equal) {
+                        // the lowest byte of x that is zero
+                        x = (x - Ones) & ~x & Ones << 7;
+                    }
+                    if (x != 0) {
+                        return done + i + (Long.numberOfTrailingZeros(x) >>> 3);
+                    }
+                }
+                for (; i < n; i++) {
+                    if ((b.get(off + i) == (byte)val) == equal) {
+                        return done + i;
+                    }
+                }
+                done += n;
+            }
+            return len;
+        }
+
+        /*
+         * Offset of the first byte b of [addr, addr + len) for which
+         * (table[b] & mask) != 0 is stop, or len if there is none.
+         */
+        public int scanTable(int addr, int len, byte[] table, int mask, boolean stop) {
+            for (int done = 0; done < len; ) {
+                int a = addr + done;
+                int off = a & Page.Mask;
+                int n = Math.min(len - done, Page.Size - off);
+                byte[] data = bufs[a >>> Page.Shift].array();
+                for (int i = off; i < off + n; i++) {
+                    if (((table[data[i] & 0xff] & mask) != 0) == stop) {
+                        return done + i - off;
+                    }
+                }
+                done += n;
+            }
+            return len;
+        }
+
+        /*
+         * Translate len bytes from src through table to dst, up to the
+         * first byte which translates to esc (any if esc is negative).
+         * The whole source is read before dst is written. Return the
+         * number of bytes translated.
+         */
+        public int translate(int src, int dst, int len, byte[] table, int esc) {
+            byte[] bytes = loadBytes(src, len);
+            int i = 0;
+            if (esc < 0) {
+                for (; i < len; i++) {
+                    bytes[i] = table[bytes[i] & 0xff];
+                }
+            } else {
+                for (; i < len; i++) {
+                    byte b = table[bytes[i] & 0xff];
+                    if (b == (byte)esc) {
+                        break;
+                    }
+                    bytes[i] = b;
+                }
+            }
+            storeBytes(dst, bytes, i);
+            return i;
+        }
+
+        /*
+         * Buffers over the pages of [addr, addr + size) for channel I/O,
+         * one per page. Pages to be written are made private first.
+         */
+        public ByteBuffer[] views(int addr, int size, boolean writable) {
+            int first = addr >>> Page.Shift;
+            int last = size > 0 ? (addr + size - 1) >>> Page.Shift : first - 1;
+            ByteBuffer[] views = new ByteBuffer[last - first + 1];
+            for (int i = 0, done = 0; i < views.length; i++) {
+                int a = addr + done;
+                int off = a & Page.Mask;
+                int n = Math.min(size - done, Page.Size - off);
+                ByteBuffer b = writable ? writableBuf(a >>> Page.Shift) : bufs[a >>> Page.Shift];
+                views[i] = ByteBuffer.wrap(b.array(), off, n);
+                done += n;
+            }
+            return views;
         }
 
         public byte[] loadStringBytes(int addr) {
             int i = addr;
-            while (mem[i++] != 0) {}
-            return Arrays.copyOfRange(mem, addr, i);
+            while (loadInt(i++, DataType.B) != 0) {}
+            return loadBytes(addr, i - addr);
         }
     }
 
@@ -234,12 +803,15 @@ class Context {
             }
         }
         public void set() {
+            evalFlags();
             psl |= mask;
         }
         public void clear() {
+            evalFlags();
             psl &= ~mask;
         }
         public boolean get() {
+            evalFlags();
             return (psl & mask) != 0;
         }
     }
@@ -250,15 +822,24 @@ class Context {
         public Proc u_procp;
         public u_r u_r = new u_r();
         public int[] u_signal = new int[NSIG];
+        public int[] u_arg = new int[MAXARG];  // arguments of the current syscall
+        public int u_ap;                        // where they are in memory
+        public String u_cdir;   // current directory on the host
+        public TmpFs u_tmpfs;   // /tmp of the job
 
-        User() {
-            u_ofile[0] = FileItem.stdin;
-            u_ofile[1] = FileItem.stdout;
-            u_ofile[2] = FileItem.stderr;
-            u_procp = Proc.newproc();
+        User(Job job) {
+            for (int i = 0; i < job.stdio.length; i++) {
+                u_ofile[i] = job.stdio[i];
+            }
+            u_cdir = job.cwd;
+            u_tmpfs = job.tmpfs;
+            u_procp = Proc.newproc(job);
+            if (u_procp == null) {
+                throw new IllegalArgumentException("No more processes.");
+            }
         }
 
-        User(User srcUser) {
+        User(User srcUser, Proc proc) {
             u_error = srcUser.u_error;
             for (int i = 0; i < NOFILE; i++) {
                 u_ofile[i] = srcUser.u_ofile[i];
@@ -266,9 +847,12 @@ class Context {
                     u_ofile[i].addReference();
                 }
             }
-            u_procp = Proc.newproc(srcUser.u_procp);
+            u_procp = proc;
             u_r = new u_r(srcUser.u_r);
             System.arraycopy(srcUser.u_signal, 0, u_signal, 0, u_signal.length);
+            u_cdir = srcUser.u_cdir;
+            u_tmpfs = srcUser.u_tmpfs;
+            u_tmpfs.addReference();
         }
 
         class u_r {
@@ -286,6 +870,7 @@ class Context {
             for (int i = 0; i < NSIG; i++) {
                 u_signal[i] = 1;
             }
+            flush();
             for (int i = 0; i < NOFILE; i++) {
                 FileItem f = u.u_ofile[i];
                 if(f != null) {
@@ -293,12 +878,23 @@ class Context {
                     f.close();
                 }
             }
+            u_tmpfs.release();
+        }
+
+        public void flush() {
+            for (FileItem f : u_ofile) {
+                if (f != null) {
+                    f.flush();
+                }
+            }
         }
 
         public int fileOpen(String fname, int mode) {
             FileItem f;
             try {
-                f = FileItem.open(fname, mode);
+                String key = TmpFs.key(fname);
+                f = key != null ? u_tmpfs.open(key, mode) : FileItem.open(fname, mode);
+                f.setName(fname);
             } catch (FileItemException e) {
                 u_error = e.error;
                 return -1;
@@ -317,7 +913,9 @@ class Context {
         public int fileCreate(String fname, int fmode) {
             FileItem f;
             try {
-                f = FileItem.create(fname, fmode);
+                String key = TmpFs.key(fname);
+                f = key != null ? u_tmpfs.create(key, fmode) : FileItem.create(fname, fmode);
+                f.setName(fname);
             } catch (FileItemException e) {
                 u_error = e.error;
                 return -1;
@@ -333,6 +931,27 @@ class Context {
             }
         }
 
+        public int[] pipe() {
+            int rfd = ufalloc();
+            if (rfd < 0) {
+                u_error = EMFILE;
+                return null;
+            }
+            FileItem[] ends = FileItem.pipe();
+            u_ofile[rfd] = ends[0];
+
+            int wfd = ufalloc();
+            if (wfd < 0) {
+                u_ofile[rfd] = null;
+                ends[0].close();
+                ends[1].close();
+                u_error = EMFILE;
+                return null;
+            }
+            u_ofile[wfd] = ends[1];
+            return new int[] {rfd, wfd};
+        }
+
         public void fileClose(int fd) {
             FileItem f = getf(fd);
             if (f != null) {
@@ -346,10 +965,12 @@ class Context {
         public int fileRead(int fd, int addr, int count) {
             FileItem f = getf(fd);
             if (f != null) {
+                if (count < 0 || (addr & 0xffffffffL) + count > MEM_SIZE) {
+                    u_error = EFAULT;
+                    return -1;
+                }
                 try {
-                    byte[] readBytes = f.read(count);
-                    memory.storeBytes(addr, readBytes, readBytes.length);
-                    return readBytes.length;
+                    return f.read(memory.views(addr, count, true));
                 } catch (FileItemException e) {
                     u_error = e.error;
                 }
@@ -362,9 +983,12 @@ class Context {
         public int fileWrite(int fd, int addr, int count) {
             FileItem f = getf(fd);
             if (f != null) {
+                if (count < 0 || (addr & 0xffffffffL) + count > MEM_SIZE) {
+                    u_error = EFAULT;
+                    return -1;
+                }
                 try {
-                    byte[] bytes = memory.loadBytes(addr, count);
-                    return f.write(bytes);
+                    return f.write(memory.views(addr, count, false));
                 } catch (FileItemException e) {
                     u_error = e.error;
                 }
@@ -398,6 +1022,16 @@ class Context {
             return false;
         }
 
+        public boolean isPipe(int fd) {
+            FileItem f = getf(fd);
+            if (f != null) {
+                return f.isPipe();
+            } else {
+                u_error = EBADF;
+            }
+            return false;
+        }
+
         public int fileDup(int fd1) {
             FileItem f1 = getf(fd1);
             if (f1 == null) {
@@ -457,7 +1091,7 @@ class Context {
             }
         }
 
-        private FileItem getf(int fd) {
+        FileItem getf(int fd) {
             if (0 <= fd && fd < NOFILE) {
                 return u_ofile[fd];
             }
@@ -0,0 +1,218 @@
+package vax_interpreter;
+
+import java.util.*;
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static vax_interpreter.Kernel.Constant.*;
+
+/*
+ * Long-lived server mode.
+ *
+ * Each connection on the Unix-domain socket is one run: the client sends
+ * argv and its working directory, then streams its stdin, and receives
+ * stdout, stderr and finally the exit status as frames:
+ *
+ *   request   int argc, argc * UTF argv, UTF cwd
+ *   frame     byte type, int length, length bytes
+ *   exit      byte EXIT, int status
+ *
+ * An empty STDIN frame marks the end of the input.
+ */
+class Daemon {
+    static final byte STDIN = 0;
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    public static void serve(String socketPath) throws IOException {
+        Path path = Paths.get(socketPath);
+        Files.deleteIfExists(path);
+        FileCache.enable();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(path));
+            path.toFile().deleteOnExit();
+            while (true) {
+                SocketChannel ch = server.accept();
+                new Thread(new Session(ch)).start();
+            }
+        }
+    }
+
+    static InputStream inputStream(final ByteChannel ch) {
+        // Channels.newInputStream would hold the blocking lock of the
+        // socket while waiting and stall the writer side
+        return new BufferedInputStream(new InputStream() {
+            @Override public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                return ch.read(ByteBuffer.wrap(b, off, len));
+            }
+        });
+    }
+
+    static void writeFully(ByteChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    static void writeFrame(ByteChannel ch, byte type, byte[] b, int off, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(5 + len);
+        buf.put(type).putInt(len).put(b, off, len);
+        buf.flip();
+        writeFully(ch, buf);
+    }
+
+
+    /*
+     * One run requested by a client.
+     */
+    static class Session implements Runnable {
+        private final SocketChannel ch;
+
+        Session(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        @Override public void run() {
+            int status = 1;
+            try {
+                DataInputStream in = new DataInputStream(inputStream(ch));
+                int argc = in.readInt();
+                List<String> argv = new ArrayList<>();
+                for (int i = 0; i < argc; i++) {
+                    argv.add(in.readUTF());
+                }
+                String cwd = in.readUTF();
+
+                Pipe stdin = Pipe.open();
+                Console console = new Console(stdin.source(),
+                                              new FrameChannel(ch, STDOUT),
+                                              new FrameChannel(ch, STDERR));
+                FileItem[] stdio = console.stdio();
+                Job job = new Job(stdio, cwd);
+                Thread feeder = new Thread(() -> feedStdin(in, stdin.sink(), job));
+                feeder.setDaemon(true);
+                feeder.start();
+
+                try {
+                    Process proc = new Process(false, argv, job);
+                    Thread t = new Thread(proc);
+                    t.start();
+                    t.join();
+                    status = proc.exitStatus();
+                    // what a crashed or still buffering guest left behind
+                    for (FileItem f : stdio) {
+                        f.flush();
+                    }
+                } catch (IllegalArgumentException | IOException e) {
+                    byte[] msg = (e.getMessage() + "\n").getBytes();
+                    synchronized (ch) {
+                        writeFrame(ch, STDERR, msg, 0, msg.length);
+                    }
+                }
+
+                ByteBuffer buf = ByteBuffer.allocate(5);
+                buf.put(EXIT).putInt(status);
+                buf.flip();
+                synchronized (ch) {
+                    try {
+                        writeFully(ch, buf);
+                    } catch (IOException e) {
+                        // the client has gone and its job was killed
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace(System.err);
+            } finally {
+                try {
+                    ch.close();
+                } catch (IOException e) {}
+            }
+        }
+
+        /*
+         * Pass the input of the client to the job, then keep reading
+         * until the connection ends: when the client goes away, or the
+         * session is over, whatever the job still runs is killed.
+         */
+        private static void feedStdin(DataInputStream in, Pipe.SinkChannel sink, Job job) {
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    int len = in.readInt();
+                    byte[] b = new byte[len];
+                    in.readFully(b);
+                    if (type != STDIN || !sink.isOpen()) {
+                        continue;
+                    }
+                    if (len == 0) {
+                        sink.close();
+                        continue;
+                    }
+                    ByteBuffer buf = ByteBuffer.wrap(b);
+                    while (buf.hasRemaining()) {
+                        sink.write(buf);
+                    }
+                }
+            } catch (IOException e) {
+                // the run sees end of file
+                Kernel.Proc.kill(job, SIGKILL);
+            } finally {
+                try {
+                    sink.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+
+
+    /*
+     * stdout or stderr of a run, sent to the client as frames.
+     * Output after the client has gone is discarded.
+     */
+    static class FrameChannel implements WritableByteChannel {
+        private final SocketChannel ch;
+        private final byte type;
+        private boolean isOpen = true;
+
+        FrameChannel(SocketChannel ch, byte type) {
+            this.ch = ch;
+            this.type = type;
+        }
+
+        @Override public int write(ByteBuffer src) throws IOException {
+            int len = src.remaining();
+            byte[] b = new byte[len];
+            src.get(b);
+            synchronized (ch) {
+                if (ch.isOpen()) {
+                    try {
+                        writeFrame(ch, type, b, 0, len);
+                    } catch (IOException e) {
+                        // discard
+                    }
+                }
+            }
+            return len;
+        }
+
+        @Override public boolean isOpen() {
+            return isOpen;
+        }
+
+        @Override public void close() {
+            isOpen = false;
+        }
+    }
+}
@@ -54,14 +54,6 @@ class IntData {
         return type.size;
     }
 
-    public static IntData bitInvert(IntData src) {
-        byte[] invVal = new byte[src.val.length];
-        for (int i = 0; i < src.val.length; i++) {
-            invVal[i] = (byte)(~src.val[i]);
-        }
-        return new IntData(invVal, src.type);
-    }
-
     public static IntData negativeFloat(IntData src) {
         assert !src.isIntValue() : "Integer value is called negativeFloat()";
 
@@ -106,21 +98,6 @@ class IntData {
         return true;
     }
 
-    public boolean isLargestNegativeInteger() {
-        if (!isIntValue()) {
-            return false;
-        }
-        if ((val[val.length - 1] & 0xff) != 0x80) {
-            return false;
-        }
-        for (int i = 0; i < val.length - 1; i++) {
-            if (val[i] != 0) {
-                return false;
-            }
-        }
-        return true;
-    }
-
     private boolean isIntValue() {
         switch (type) {
         default:
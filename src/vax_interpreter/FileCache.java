@@ -0,0 +1,225 @@
+package vax_interpreter;
+
+import java.util.*;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import static java.nio.file.StandardWatchEventKinds.*;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/*
+ * Attributes of host files looked up by the file syscalls.
+ *
+ * Files below the guest root (headers, libraries, the toolchain) are
+ * looked up over and over by every compile, including the ones that do
+ * not exist, so their attributes are kept here. An entry is dropped when
+ * the guest changes the file through creat, unlink, link, chmod or a
+ * writable open, and when the host changes its directory, as reported by
+ * a WatchService. Files elsewhere are always read afresh.
+ *
+ * A single run does only a handful of lookups, fewer than it takes to
+ * set up the watches, so the cache is enabled by the server mode only.
+ *
+ * Lookups follow symbolic links. Attributes are kept by the real path of
+ * the file, so a change seen through the link or through its target drops
+ * the same entry; the name looked up is mapped to that real path until a
+ * change in its directory drops the mapping. Names are kept as the strings
+ * the syscalls pass in, so a hit builds no Path.
+ */
+class FileCache {
+    static final class Attrs {
+        static final Attrs Missing = new Attrs();
+
+        private static final int R = 4, W = 2, X = 1;
+
+        private final Path path;
+        final boolean exists;
+        final boolean isDirectory;
+        final boolean isRegularFile;
+        final int size;
+        final int atime;
+        final int mtime;
+        // access(2) results, asked for when first needed
+        private int checked;
+        private int allowed;
+
+        private Attrs() {
+            path = null;
+            exists = isDirectory = isRegularFile = false;
+            size = atime = mtime = 0;
+        }
+
+        private Attrs(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            exists = true;
+            isDirectory = attrs.isDirectory();
+            isRegularFile = attrs.isRegularFile();
+            size = (int)attrs.size();
+            atime = (int)attrs.lastAccessTime().to(SECONDS);
+            mtime = (int)attrs.lastModifiedTime().to(SECONDS);
+        }
+
+        boolean canRead() {
+            return can(R);
+        }
+
+        boolean canWrite() {
+            return can(W);
+        }
+
+        boolean canExecute() {
+            return can(X);
+        }
+
+        private synchronized boolean can(int bit) {
+            if (!exists) {
+                return false;
+            }
+            if ((checked & bit) == 0) {
+                boolean ok = bit == R ? Files.isReadable(path) :
+                             bit == W ? Files.isWritable(path) :
+                                        Files.isExecutable(path);
+                checked |= bit;
+                allowed |= ok ? bit : 0;
+            }
+            return (allowed & bit) != 0;
+        }
+
+        static Attrs read(Path path) {
+            try {
+                return new Attrs(path, Files.readAttributes(path, BasicFileAttributes.class));
+            } catch (IOException e) {
+                return Missing;
+            }
+        }
+    }
+
+    /* a name looked up, as a path, and the real path it leads to */
+    private static final class Name {
+        final Path path;
+        final Path real;
+
+        Name(Path path, Path real) {
+            this.path = path;
+            this.real = real;
+        }
+    }
+
+    private static final Map<Path, Attrs> cache = new ConcurrentHashMap<>();
+    private static final Map<String, Name> names = new ConcurrentHashMap<>();
+    private static final Set<Path> watchedDirs = ConcurrentHashMap.newKeySet();
+    private static WatchService watcher;
+    private static volatile boolean isEnabled;
+
+    public static void enable() {
+        isEnabled = true;
+    }
+
+    public static Attrs get(String fname) {
+        if (!isEnabled) {
+            return Attrs.read(Paths.get(fname));
+        }
+
+        Name name = names.get(fname);
+        if (name != null) {
+            Attrs attrs = cache.get(name.real);
+            if (attrs != null) {
+                return attrs;
+            }
+        }
+
+        Path path = Paths.get(fname).toAbsolutePath().normalize();
+        Path real = realPath(path);
+        Attrs attrs = Attrs.read(real);
+        Path dir = path.getParent();
+        Path realDir = real.getParent();
+        if (dir != null && realDir != null && path.startsWith(root())
+                && watch(dir) && watch(realDir)) {
+            cache.put(real, attrs);
+            names.put(fname, new Name(path, real));
+        }
+        return attrs;
+    }
+
+    /* the path with every link resolved, itself when it does not exist */
+    private static Path realPath(Path path) {
+        try {
+            return path.toRealPath();
+        } catch (IOException e) {
+            return path;
+        }
+    }
+
+    public static void invalidate(String fname) {
+        if (!isEnabled) {
+            return;
+        }
+        Path path = Paths.get(fname).toAbsolutePath().normalize();
+        Name name = names.remove(fname);
+        if (name != null) {
+            cache.remove(name.real);
+            if (name.real.getParent() != null) {
+                cache.remove(name.real.getParent());
+            }
+        }
+        cache.remove(path);
+        if (path.getParent() != null) {
+            // its directory has changed as well
+            cache.remove(path.getParent());
+        }
+    }
+
+    private static Path root() {
+        return Paths.get(Kernel.rootPath).toAbsolutePath().normalize();
+    }
+
+    private static synchronized boolean watch(Path dir) {
+        if (watchedDirs.contains(dir)) {
+            return true;
+        }
+        try {
+            if (watcher == null) {
+                watcher = dir.getFileSystem().newWatchService();
+                Thread t = new Thread(FileCache::dropChanged, "file cache watcher");
+                t.setDaemon(true);
+                t.start();
+            }
+            dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            watchedDirs.add(dir);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static void dropChanged() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Path dir = (Path)key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    cache.clear();
+                    names.clear();
+                } else {
+                    Path changed = dir.resolve((Path)event.context());
+                    cache.remove(changed);
+                    // names that went through it, if it is a link
+                    names.values().removeIf(n -> n.path.startsWith(changed));
+                }
+            }
+            cache.remove(dir);
+            if (!key.reset()) {
+                // the directory itself has gone
+                watchedDirs.remove(dir);
+                cache.keySet().removeIf(p -> p.startsWith(dir));
+                names.values().removeIf(n -> n.path.startsWith(dir));
+            }
+        }
+    }
+}
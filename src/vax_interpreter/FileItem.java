@@ -6,21 +6,21 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.io.File;
+import java.io.Flushable;
 import java.io.RandomAccessFile;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
+import java.io.InterruptedIOException;
 import static vax_interpreter.Kernel.Constant.*;
 
 class FileItem {
     private final Channel chan;
     private final byte f_flag;
     private byte f_count;
-
-    public static final FileItem stdin = new FileItem(Channels.newChannel(System.in), FREAD);
-    public static final FileItem stdout = new FileItem(Channels.newChannel(System.out), FWRITE);
-    public static final FileItem stderr = new FileItem(Channels.newChannel(System.err), FWRITE);
+    private String writtenPath;     // host file opened for writing, if any
+    private String name;            // host path it was opened by, if any
 
     private FileItem(Channel ch, int mode) {
         this.chan = ch;
@@ -28,33 +28,53 @@ class FileItem {
         this.f_count = 1;
     }
 
+    public static FileItem fromChannel(Channel ch, int mode) {
+        return new FileItem(ch, mode);
+    }
+
+    /*
+     * Both ends of a new pipe: [0] for reading, [1] for writing.
+     */
+    public static FileItem[] pipe() {
+        PipeBuffer pipe = new PipeBuffer();
+        return new FileItem[] {
+            new FileItem(pipe.source(), FREAD),
+            new FileItem(pipe.sink(), FWRITE)
+        };
+    }
+
     public static FileItem open(String fname, int mode) throws FileItemException {
-        File file = new File(fname);
-        if (!file.exists()) {
+        FileCache.Attrs attrs = FileCache.get(fname);
+        if (!attrs.exists) {
             throw new FileItemException(ENOENT);
         }
-        if (file.isDirectory()) {
+        File file = new File(fname);
+        if (attrs.isDirectory) {
             return openDir(file, mode);
         } else {
-            return openFile(file, mode);
+            return openFile(file, attrs, mode);
         }
     }
 
-    private static FileItem openFile(File file, int mode) throws FileItemException {
+    private static FileItem openFile(File file, FileCache.Attrs attrs, int mode) throws FileItemException {
         if ((mode & FREAD) != 0) {
-            if (!file.canRead()) {
+            if (!attrs.canRead()) {
                 throw new FileItemException(EACCES);
             }
         }
         if ((mode & FWRITE) != 0) {
-            if (!file.canWrite()) {
+            if (!attrs.canWrite()) {
                 throw new FileItemException(EACCES);
             }
         }
 
         try {
             Channel ch = openFileCh(file, mode);
-            return new FileItem(ch, mode);
+            FileItem fItem = new FileItem(ch, mode);
+            if ((mode & FWRITE) != 0) {
+                fItem.setWrittenPath(file.getPath());
+            }
+            return fItem;
         } catch (FileNotFoundException e) {
             throw new FileItemException(ENOENT);
         } catch (IOException e) {
@@ -86,7 +106,8 @@ class FileItem {
         boolean isCreatedNewFile = false;
 
         File file = new File(fname);
-        if (!file.exists()) {
+        FileCache.Attrs attrs = FileCache.get(fname);
+        if (!attrs.exists) {
             try {
                 isCreatedNewFile = file.createNewFile();
             } catch (IOException e) {
@@ -96,7 +117,7 @@ class FileItem {
                 throw new FileItemException(ENFILE);
             }
         } else {
-            if (!file.canWrite()) {
+            if (!attrs.canWrite()) {
                 throw new FileItemException(EACCES);
             }
         }
@@ -105,6 +126,7 @@ class FileItem {
         try {
             Channel ch = new FileOutputStream(file).getChannel();
             fItem = new FileItem(ch, FWRITE);
+            fItem.setWrittenPath(fname);
         } catch (FileNotFoundException e) {
             throw new FileItemException(ENOENT);
         }
@@ -119,30 +141,63 @@ class FileItem {
         return fItem;
     }
 
+    public String name() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    private void setWrittenPath(String path) {
+        writtenPath = path;
+        FileCache.invalidate(path);
+    }
+
     public void close() {
-        if (--f_count > 0) {
-            return;
+        synchronized (this) {
+            if (--f_count > 0) {
+                return;
+            }
         }
         try {
             chan.close();
         } catch (IOException e) {
             e.printStackTrace(System.err);
         }
+        if (writtenPath != null) {
+            FileCache.invalidate(writtenPath);
+        }
     }
 
-    public byte[] read(int count) throws FileItemException {
+    /*
+     * Read into dsts in order, stopping at the first short read so that
+     * pipes and terminals return what is available. Returns the count,
+     * 0 at end of file.
+     */
+    public int read(ByteBuffer[] dsts) throws FileItemException {
         if ((f_flag & FREAD) == 0) {
             throw new FileItemException(EBADF);
         }
 
-        ByteBuffer buf = ByteBuffer.allocate(count);
         try {
-            int rcount = ((ReadableByteChannel)chan).read(buf);
-            if (rcount > 0) {
-                return Arrays.copyOf(buf.array(), rcount);
-            } else {
-                return new byte[0];
+            if (chan instanceof FileChannel) {
+                long rcount = ((FileChannel)chan).read(dsts);
+                return rcount > 0 ? (int)rcount : 0;
             }
+
+            int total = 0;
+            for (ByteBuffer dst : dsts) {
+                int rcount = ((ReadableByteChannel)chan).read(dst);
+                if (rcount <= 0) {
+                    break;
+                }
+                total += rcount;
+                if (dst.hasRemaining()) {
+                    break;
+                }
+            }
+            return total;
         } catch (NonReadableChannelException e) {
             throw new FileItemException(EBADF);
         } catch (IOException e) {
@@ -150,22 +205,42 @@ class FileItem {
         }
     }
 
-    public int write(byte[] bytes) throws FileItemException {
+    public int write(ByteBuffer[] srcs) throws FileItemException {
         if ((f_flag & FWRITE) == 0) {
             throw new FileItemException(EBADF);
         }
 
-        ByteBuffer buf = ByteBuffer.wrap(bytes);
         try {
-            return ((WritableByteChannel)chan).write(buf);
+            long total = 0;
+            if (chan instanceof FileChannel) {
+                FileChannel fch = (FileChannel)chan;
+                while (srcs.length > 0 && srcs[srcs.length - 1].hasRemaining()) {
+                    total += fch.write(srcs);
+                }
+            } else if (chan instanceof PipeBuffer.Sink) {
+                // in one go, so a short write stays whole
+                total = ((PipeBuffer.Sink)chan).write(srcs);
+            } else {
+                for (ByteBuffer src : srcs) {
+                    while (src.hasRemaining()) {
+                        total += ((WritableByteChannel)chan).write(src);
+                    }
+                }
+            }
+            return (int)total;
         } catch (NonWritableChannelException e) {
             throw new FileItemException(EBADF);
+        } catch (PipeBuffer.BrokenPipeException e) {
+            throw new FileItemException(EPIPE);
         } catch (IOException e) {
             throw new RuntimeException();
         }
     }
 
-    public int seek(int offset, int sbase) throws FileItemException {
+    public synchronized int seek(int offset, int sbase) throws FileItemException {
+        if (!(chan instanceof SeekableByteChannel)) {
+            throw new FileItemException(ESPIPE);
+        }
         SeekableByteChannel sch = (SeekableByteChannel)chan;
         try {
             if (sbase == 1) {
@@ -180,11 +255,28 @@ class FileItem {
         }
     }
 
+    /*
+     * Hand buffered output, if the channel keeps any, to the host.
+     */
+    public void flush() {
+        if (chan instanceof Flushable) {
+            try {
+                ((Flushable)chan).flush();
+            } catch (IOException e) {
+                // nobody is listening any more
+            }
+        }
+    }
+
     public boolean isNormalFile() {
-        return chan instanceof FileChannel;
+        return chan instanceof FileChannel || chan instanceof TmpFs.MemChannel;
+    }
+
+    public boolean isPipe() {
+        return chan instanceof PipeBuffer.Source || chan instanceof PipeBuffer.Sink;
     }
 
-    public void addReference() {
+    public synchronized void addReference() {
         ++f_count;
     }
 }
@@ -194,10 +286,14 @@ class DirChannel implements SeekableByteChannel {
     private boolean isOpen;
 
     public DirChannel(File dir) {
+        this(Arrays.asList(dir.list()));
+    }
+
+    public DirChannel(List<String> names) {
         final int DirEntrySize = 16;
 
         List<String> flist = new ArrayList<>(Arrays.asList(".", ".."));
-        flist.addAll(Arrays.asList(dir.list()));
+        flist.addAll(names);
 
         ByteBuffer buf = ByteBuffer.allocate(DirEntrySize * flist.size()).order(ByteOrder.LITTLE_ENDIAN);
         for (String fname : flist) {
@@ -267,6 +363,150 @@ class DirChannel implements SeekableByteChannel {
     }
 }
 
+/*
+ * In-memory pipe between processes.
+ *
+ * A bounded ring buffer: read blocks while it is empty and returns end of
+ * file once the write end has been closed, write blocks while it is full.
+ * A write of up to PipeBuf bytes waits until it fits as a whole, so it is
+ * never interleaved with another. Once the read end has been closed, a
+ * write returns what it has written so far, or fails with
+ * BrokenPipeException if that is nothing. Each end is closed by FileItem
+ * when its last reference goes away.
+ */
+class PipeBuffer {
+    private static final int Size = 0x10000;
+    private static final int PipeBuf = 4096;
+
+    private final byte[] ring = new byte[Size];
+    private int head;       // next byte to read
+    private int count;      // bytes in the ring
+    private boolean readerOpen = true;
+    private boolean writerOpen = true;
+
+    static class BrokenPipeException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public Source source() {
+        return new Source();
+    }
+
+    public Sink sink() {
+        return new Sink();
+    }
+
+    private synchronized int read(ByteBuffer dst) throws IOException {
+        while (count == 0) {
+            if (!writerOpen) {
+                return -1;
+            }
+            waitChange();
+        }
+
+        int len = Math.min(count, dst.remaining());
+        int first = Math.min(len, Size - head);
+        dst.put(ring, head, first);
+        dst.put(ring, 0, len - first);
+        head = (head + len) % Size;
+        count -= len;
+        notifyAll();
+        return len;
+    }
+
+    private synchronized long write(ByteBuffer[] srcs) throws IOException {
+        long total = 0;
+        for (ByteBuffer src : srcs) {
+            total += src.remaining();
+        }
+
+        long written = 0;
+        for (ByteBuffer src : srcs) {
+            while (src.hasRemaining()) {
+                if (!readerOpen) {
+                    if (written == 0) {
+                        throw new BrokenPipeException();
+                    }
+                    return written;
+                }
+                int room = Size - count;
+                if (room == 0 || total <= PipeBuf && room < total - written) {
+                    waitChange();
+                    continue;
+                }
+
+                int tail = (head + count) % Size;
+                int len = Math.min(src.remaining(), room);
+                int first = Math.min(len, Size - tail);
+                src.get(ring, tail, first);
+                src.get(ring, 0, len - first);
+                count += len;
+                written += len;
+                notifyAll();
+            }
+        }
+        return written;
+    }
+
+    private void waitChange() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private synchronized void closeReader() {
+        readerOpen = false;
+        notifyAll();
+    }
+
+    private synchronized void closeWriter() {
+        writerOpen = false;
+        notifyAll();
+    }
+
+    class Source implements ReadableByteChannel {
+        @Override public int read(ByteBuffer dst) throws IOException {
+            return PipeBuffer.this.read(dst);
+        }
+
+        @Override public boolean isOpen() {
+            synchronized (PipeBuffer.this) {
+                return readerOpen;
+            }
+        }
+
+        @Override public void close() {
+            closeReader();
+        }
+    }
+
+    class Sink implements GatheringByteChannel {
+        @Override public int write(ByteBuffer src) throws IOException {
+            return (int)PipeBuffer.this.write(new ByteBuffer[] { src });
+        }
+
+        @Override public long write(ByteBuffer[] srcs) throws IOException {
+            return PipeBuffer.this.write(srcs);
+        }
+
+        @Override public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return PipeBuffer.this.write(Arrays.copyOfRange(srcs, offset, offset + length));
+        }
+
+        @Override public boolean isOpen() {
+            synchronized (PipeBuffer.this) {
+                return writerOpen;
+            }
+        }
+
+        @Override public void close() {
+            closeWriter();
+        }
+    }
+}
+
 class FileItemException extends Exception {
     public int error;
     public FileItemException(int error) {
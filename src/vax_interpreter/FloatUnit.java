@@ -0,0 +1,310 @@
+package vax_interpreter;
+
+import static vax_interpreter.DataType.*;
+
+/*
+ * F_floating and D_floating arithmetic.
+ *
+ * Values are passed around as longs in natural order: the sign in bit
+ * 63, the exponent in bits 62-55 and the fraction below, that is the
+ * words of a D value from the first one down. An F value is the top
+ * half of the D value it converts to. A value with exponent 0 is 0, or
+ * the reserved operand if its sign is set.
+ *
+ * F add, sub, mul and div are done on host doubles: 53 bits leave no
+ * double rounding for a 24 bit result. D keeps its 56 bits in long
+ * arithmetic. Results are rounded half away from zero as on the VAX.
+ * Overflow and division by zero give the reserved operand, which sets
+ * V; underflow gives 0.
+ */
+class FloatUnit {
+    static final long Reserved = Long.MIN_VALUE;
+    private static final long Hidden = 1L << 55;
+    private static final long FracMask = Hidden - 1;
+    private static final long DoubleFracMask = (1L << 52) - 1;
+
+    public static long load(Operand opr, DataType type) {
+        return type == F ? fromF(opr.getInt()) : fromD(opr.getLong());
+    }
+
+    public static void store(Operand opr, DataType type, long n) {
+        if (type == F) {
+            opr.setInt(toF(n));
+        } else {
+            opr.setLong(toD(n));
+        }
+    }
+
+    public static long fromF(int val) {
+        return clean((long)Integer.rotateLeft(val, 16) << 32);
+    }
+
+    public static long fromD(long val) {
+        return clean(swapWords(val));
+    }
+
+    public static int toF(long n) {
+        return Integer.rotateLeft((int)(n >>> 32), 16);
+    }
+
+    public static long toD(long n) {
+        return swapWords(n);
+    }
+
+    // the words of a D value in memory are stored first to last
+    private static long swapWords(long val) {
+        val = Long.rotateLeft(val, 32);
+        return (val & 0x0000ffff0000ffffL) << 16 | (val >>> 16) & 0x0000ffff0000ffffL;
+    }
+
+    private static long clean(long n) {
+        if (exponent(n) != 0) {
+            return n;
+        }
+        assert n >= 0 : "Reserved operand fault";
+        return 0;
+    }
+
+    static int exponent(long n) {
+        return (int)(n >>> 55) & 0xff;
+    }
+
+    // with the hidden bit, so that n is mantissa * 2^(exponent - 184)
+    static long mantissa(long n) {
+        return n == 0 ? 0 : n & FracMask | Hidden;
+    }
+
+    public static void setFlags(long n, Context context) {
+        context.flagN.set( n < 0 );
+        context.flagZ.set( n == 0 );
+        context.flagV.set( n == Reserved );
+        context.flagC.clear();
+    }
+
+    public static int compare(long a, long b) {
+        return Long.compare(a < 0 ? -(a & Long.MAX_VALUE) : a,
+                            b < 0 ? -(b & Long.MAX_VALUE) : b);
+    }
+
+    public static long negate(long n) {
+        return n == 0 ? 0 : n ^ Reserved;
+    }
+
+    public static long add(long a, long b, DataType type) {
+        if (type == F) {
+            return fromDouble(toDouble(a) + toDouble(b));
+        }
+        return add(a < 0, mantissa(a) << 7, exponent(a) - 191,
+                   b < 0, mantissa(b) << 7, exponent(b) - 191, type);
+    }
+
+    public static long sub(long a, long b, DataType type) {
+        return add(a, negate(b), type);
+    }
+
+    public static long mul(long a, long b, DataType type) {
+        if (type == F) {
+            return fromDouble(toDouble(a) * toDouble(b));
+        }
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        long xa = mantissa(a) << 7;
+        long xb = mantissa(b) << 7;
+        long hi = Math.multiplyHigh(xa, xb);
+        long lo = xa * xb;
+        return round((a ^ b) < 0, hi << 1 | lo >>> 63,
+                     exponent(a) + exponent(b) - 319, type);
+    }
+
+    public static long div(long a, long b, DataType type) {
+        assert b != 0 : "Divide by zero fault";
+        if (b == 0) {
+            return Reserved;
+        }
+        if (type == F) {
+            return fromDouble(toDouble(a) / toDouble(b));
+        }
+        if (a == 0) {
+            return 0;
+        }
+        // 63 bits of quotient, 7 at a time as the remainder stays below 2^56
+        long ma = mantissa(a);
+        long mb = mantissa(b);
+        long q = ma / mb;
+        long r = ma % mb;
+        for (int i = 0; i < 9; i++) {
+            r <<= 7;
+            q = q << 7 | r / mb;
+            r %= mb;
+        }
+        return round((a ^ b) < 0, q, exponent(a) - exponent(b) - 63, type);
+    }
+
+    /*
+     * A step of POLY, acc * arg + coef: the product is cut to 31 bits
+     * for F and 63 for D, and only the sum is rounded.
+     */
+    public static long poly(long acc, long arg, long coef, DataType type) {
+        if (acc == 0 || arg == 0) {
+            return coef;
+        }
+        long xa = mantissa(acc) << 7;
+        long xb = mantissa(arg) << 7;
+        long hi = Math.multiplyHigh(xa, xb);
+        long lo = xa * xb;
+        long x = hi << 1 | lo >>> 63;
+        int s = exponent(acc) + exponent(arg) - 319;
+        if (x < 1L << 62) {
+            x = x << 1 | lo >>> 62 & 1;
+            s--;
+        }
+        if (type == F) {
+            x &= -1L << 32;
+        }
+        return add((acc ^ arg) < 0, x, s,
+                   coef < 0, mantissa(coef) << 7, exponent(coef) - 191, type);
+    }
+
+    /*
+     * n converted to type; from F to D there is nothing to do.
+     */
+    public static long convert(long n, DataType type) {
+        if (type == D || (n & 0xffffffffL) == 0) {
+            return n;
+        }
+        return round(n < 0, mantissa(n), exponent(n) - 184, type);
+    }
+
+    public static long fromInteger(int val, DataType type) {
+        return round(val < 0, Math.abs((long)val), 0, type);
+    }
+
+    /*
+     * The integer of n, truncated or rounded. Values of 2^32 or more
+     * keep their low 32 bits but come back outside the range of int.
+     */
+    public static long integer(long n, boolean rounded) {
+        if (n == 0) {
+            return 0;
+        }
+        long m = mantissa(n);
+        int s = exponent(n) - 184;
+        long val;
+        if (s >= 0) {
+            val = s < 64 ? m << s : 0;
+        } else if (-s >= 64) {
+            val = 0;
+        } else if (rounded) {
+            val = (m + (1L << -s - 1)) >>> -s;
+        } else {
+            val = m >>> -s;
+        }
+        if (n < 0) {
+            val = -val;
+        }
+        return exponent(n) <= 128 + 32 ? val : (val & 0xffffffffL) | 1L << 40;
+    }
+
+    /*
+     * The sum of xa * 2^sa and xb * 2^sb, magnitudes below 2^63,
+     * rounded to type.
+     */
+    private static long add(boolean na, long xa, int sa,
+                            boolean nb, long xb, int sb, DataType type) {
+        if (xa == 0) {
+            return round(nb, xb, sb, type);
+        }
+        if (xb == 0) {
+            return round(na, xa, sa, type);
+        }
+        int la = Long.numberOfLeadingZeros(xa) - 1;
+        xa <<= la;
+        sa -= la;
+        int lb = Long.numberOfLeadingZeros(xb) - 1;
+        xb <<= lb;
+        sb -= lb;
+        if (sa < sb) {
+            return add(nb, xb, sb, na, xa, sa, type);
+        }
+
+        // Rounding half away only looks at the bits from the round bit
+        // up, so the bits shifted out of xb matter only as a borrow. Below
+        // a difference of 2 the borrow could reach them; there xa is
+        // shifted instead.
+        int d = sa - sb;
+        if (d == 1 && na != nb) {
+            return round(na, (xa << 1) - xb, sb, type);
+        }
+        boolean lost = false;
+        if (d >= 64) {
+            lost = true;
+            xb = 0;
+        } else if (d > 0) {
+            lost = xb << 64 - d != 0;
+            xb >>>= d;
+        }
+        long x;
+        if (na == nb) {
+            x = xa + xb;
+        } else if (xa >= xb) {
+            x = xa - xb - (lost ? 1 : 0);
+        } else {
+            x = xb - xa;
+            na = nb;
+        }
+        return round(na, x, sa, type);
+    }
+
+    /*
+     * x * 2^s, x taken unsigned, rounded to the fraction of type.
+     */
+    static long round(boolean neg, long x, int s, DataType type) {
+        if (x == 0) {
+            return 0;
+        }
+        int lz = Long.numberOfLeadingZeros(x);
+        if (lz == 0) {
+            x >>>= 1;
+            s++;
+        } else {
+            x <<= lz - 1;
+            s -= lz - 1;
+        }
+
+        // x is now in [2^62, 2^63); cut is the number of bits below the fraction
+        int cut = type == F ? 39 : 7;
+        x += 1L << cut - 1;
+        if (x < 0) {
+            x >>>= 1;
+            s++;
+        }
+        int exp = s + 191;
+        if (exp <= 0) {
+            return 0;
+        }
+        assert exp <= 0xff : "Floating overflow";
+        if (exp > 0xff) {
+            return Reserved;
+        }
+        return (neg ? Reserved : 0) | (long)exp << 55 | (x >>> cut << cut - 7) & FracMask;
+    }
+
+    // only F values come through here, so no fraction bits are lost
+    private static double toDouble(long n) {
+        if (n == 0) {
+            return 0;
+        }
+        return Double.longBitsToDouble(n & Reserved | (long)(exponent(n) + 894) << 52 |
+                                       n >>> 3 & DoubleFracMask);
+    }
+
+    private static long fromDouble(double d) {
+        long bits = Double.doubleToRawLongBits(d);
+        if ((bits & Long.MAX_VALUE) == 0) {
+            return 0;
+        }
+        return round(bits < 0, bits & DoubleFracMask | 1L << 52,
+                     (int)(bits >>> 52 & 0x7ff) - 1075, F);
+    }
+}
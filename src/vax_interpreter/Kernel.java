@@ -8,8 +8,6 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.attribute.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
-import static java.util.concurrent.TimeUnit.SECONDS;
 import static vax_interpreter.Util.*;
 import static vax_interpreter.Kernel.Constant.*;
 
@@ -29,14 +27,15 @@ class Kernel {
 
         if (sysent == Sysent.indir) {
             /* indirect */
-            syscallNum = context.memory.load(params, DataType.L).uint() & 0x3f;
+            syscallNum = context.memory.loadInt(params, DataType.L) & 0x3f;
             params += NBPW;
             sysent = Sysent.getSysent(syscallNum);
         }
 
-        ArrayList<Integer> args = new ArrayList<>(sysent.narg);
+        context.u.u_ap = params;
+        int[] args = context.u.u_arg;
         for (int i = 0; i < sysent.narg; i++) {
-            args.add(context.memory.load(params, DataType.L).sint());
+            args[i] = context.memory.loadInt(params, DataType.L);
             params += NBPW;
         }
 
@@ -44,7 +43,22 @@ class Kernel {
         context.u.u_r.r_val1 = 0;
         context.u.u_r.r_val2 = context.register[1];
  //   System.err.printf("--: %s%n", sysent);
-        sysent.call(args, context);
+        if (context.log != null && SyscallLog.recording) {
+            context.log.enter(sysent, args, context);
+        }
+        if (context.log != null && SyscallLog.replaying) {
+            context.log.replay(sysent, args, context);
+        } else if (SyscallStats.enabled) {
+            FileItem f = sysent == Sysent.read || sysent == Sysent.write ? context.u.getf(args[0]) : null;
+            long start = System.nanoTime();
+            sysent.call(args, context);
+            SyscallStats.record(sysent, context, f, System.nanoTime() - start);
+        } else {
+            sysent.call(args, context);
+        }
+        if (context.log != null && SyscallLog.recording) {
+            context.log.record(sysent, args, context);
+        }
 
         if (context.u.u_error == 0) {
             context.register[0] = context.u.u_r.r_val1;
@@ -60,23 +74,35 @@ class Kernel {
         public static final int NOFILE = 20;    /* max open files per contextess */
         public static final int NSIG = 17;
         public static final int NCARGS = 5120;  /* # characters in exec arglist */
+        public static final int MAXARG = 4;     /* max # of syscall arguments */
 
         // Error
         public static final int EPERM = 1;
         public static final int ENOENT = 2;
+        public static final int EINTR = 4;
         public static final int E2BIG = 7;
         public static final int ENOEXEC = 8;
         public static final int EBADF = 9;
         public static final int ECHILD = 10;
+        public static final int EAGAIN = 11;
+        public static final int ENOMEM = 12;
         public static final int EACCES = 13;
         public static final int EFAULT = 14;
         public static final int EBUSY = 16;
         public static final int EEXIST = 17;
+        public static final int EXDEV = 18;
+        public static final int ENOTDIR = 20;
         public static final int EINVAL = 22;
         public static final int ENFILE = 23;
         public static final int EMFILE = 24;
         public static final int ENOTTY = 25;
         public static final int ESPIPE = 29;
+        public static final int EPIPE = 32;
+
+        // Signal
+        public static final int SIGILL = 4;
+        public static final int SIGKILL = 9;
+        public static final int SIGPIPE = 13;
 
         /* read, write, execute permissions */
         public static final int IREAD = 0400;
@@ -97,40 +123,62 @@ class Kernel {
     }
 
 
+    /*
+     * Pids are shared by all the jobs of a server, so there are plenty;
+     * each job may hold Job.MaxProcs of them. Freed pids go to the end of
+     * the set, so they are handed out again as late as possible.
+     */
     private static final short startPid = 30;
-    private static final Set<Integer> pidFreeSet =
-        new LinkedHashSet<>(Arrays.asList(31,32,33,34,35,36,37,38,39,40,
-                                    41,42,43,44,45,46,47,48,49,50,
-                                    51,52,53,54,55,56,57,58,59,60));
+    private static final short maxPid = 30000;
+    private static final Set<Integer> pidFreeSet = new LinkedHashSet<>();
+    static {
+        for (int pid = startPid + 1; pid <= maxPid; pid++) {
+            pidFreeSet.add(pid);
+        }
+    }
 
+    /* procSet also guards pidFreeSet, Job.procs and the p_stat of every proc. */
     private static final Set<Proc> procSet = new HashSet<>();
     static class Proc {
         public byte p_stat;
         public short p_pid;
         public short p_ppid;
         public short xp_xstat;
+        public volatile int p_sig;  // signal to die of, 0 if none
+        private final Job job;
+
+        private Proc(Job job, short ppid) {
+            this.job = job;
+            p_stat = SRUN;
+            p_ppid = ppid;
+        }
 
-        static Proc newproc() {
-            Proc newp = new Proc();
-            newp.p_stat = SRUN;
-            newp.p_pid = allocPid();
-            newp.p_ppid = startPid;
-            procSet.add(newp);
-            return newp;
+        /*
+         * A proc started from outside, or null if there is no pid left
+         * for it.
+         */
+        static Proc newproc(Job job) {
+            return newproc(job, startPid);
         }
 
         static Proc newproc(Proc parent) {
-            Proc newp = new Proc();
-            newp.p_stat = SRUN;
-            newp.p_pid = allocPid();
-            newp.p_ppid = parent.p_pid;
-            procSet.add(newp);
-            return newp;
+            return newproc(parent.job, parent.p_pid);
         }
 
-        private static short allocPid() {
-            assert !pidFreeSet.isEmpty() : "no procs";
+        private static Proc newproc(Job job, short ppid) {
+            synchronized (procSet) {
+                if (pidFreeSet.isEmpty() || job.procs >= Job.MaxProcs) {
+                    return null;
+                }
+                Proc newp = new Proc(job, ppid);
+                newp.p_pid = allocPid();
+                ++job.procs;
+                procSet.add(newp);
+                return newp;
+            }
+        }
 
+        private static short allocPid() {
             Iterator<Integer> iter = pidFreeSet.iterator();
             int pid = iter.next();
             iter.remove();
@@ -139,35 +187,57 @@ class Kernel {
 
         private void freePid() {
             pidFreeSet.add((int)p_pid);
+            --job.procs;
+        }
+
+        /*
+         * Make every running process of job die of signo, as when the
+         * client of the job has gone.
+         */
+        static void kill(Job job, int signo) {
+            synchronized (procSet) {
+                for (Proc p : procSet) {
+                    if (p.job == job && p.p_stat == SRUN) {
+                        p.p_sig = signo;
+                    }
+                }
+                // wake the ones waiting for a child
+                procSet.notifyAll();
+            }
+        }
+
+        /*
+         * Take pid instead of the allocated one, as in a replayed run.
+         */
+        void renumber(short pid) {
+            synchronized (procSet) {
+                if (pid == p_pid) {
+                    return;
+                }
+                if (!pidFreeSet.remove((int)pid)) {
+                    throw new IllegalStateException("pid " + pid + " in use");
+                }
+                pidFreeSet.add((int)p_pid);
+                p_pid = pid;
+            }
         }
     }
 
     enum Sysent {
         indir (0, 0),
         exit (1, 1) {
-            @Override public void call(List<Integer> args, Context context) {
-                context.u.exit();
-
-                Proc p = context.u.u_procp;
-                p.p_stat = SZOMB;
-                p.xp_xstat = (short)((args.get(0) & 0xff) << 8);
-
-                /*for (Proc q : procSet) {
-                    if (q.p_ppid == p.p_pid) {
-                        q.p_ppid = 1;
-                    }
-                }*/
-
-                for (Proc q : procSet) {
-                    if (p.p_ppid == q.p_pid) {
-                        Context.class.notifyAll();
-                    }
-                }
+            @Override public void call(int[] args, Context context) {
+                exit(context, (args[0] & 0xff) << 8);
             }
         },
         fork (2, 0) {
-            @Override public void call(List<Integer> args, Context context) {
-                Process newProc = new Process(context);
+            @Override public void call(int[] args, Context context) {
+                Proc proc = Proc.newproc(context.u.u_procp);
+                if (proc == null) {
+                    context.u.u_error = EAGAIN;
+                    return;
+                }
+                Process newProc = new Process(context, proc);
                 newProc.context.register[0] = context.u.u_procp.p_pid;
                 newProc.context.register[1] = 1;
                 new Thread(newProc).start();
@@ -177,10 +247,10 @@ class Kernel {
             }
         },
         read (3, 3) {
-            @Override public void call(List<Integer> args, Context context) {
-                int fd = args.get(0);
-                int addr = args.get(1);
-                int count = args.get(2);
+            @Override public void call(int[] args, Context context) {
+                int fd = args[0];
+                int addr = args[1];
+                int count = args[2];
                 int readCount = context.u.fileRead(fd, addr, count);
                 if (context.u.u_error == 0) {
                     context.u.u_r.r_val1 = readCount;
@@ -188,20 +258,23 @@ class Kernel {
             }
         },
         write (4, 3) {
-            @Override public void call(List<Integer> args, Context context) {
-                int fd = args.get(0);
-                int addr = args.get(1);
-                int count = args.get(2);
+            @Override public void call(int[] args, Context context) {
+                int fd = args[0];
+                int addr = args[1];
+                int count = args[2];
                 int wroteCount = context.u.fileWrite(fd, addr, count);
                 if (context.u.u_error == 0) {
                     context.u.u_r.r_val1 = wroteCount;
+                } else if (context.u.u_error == EPIPE && context.u.u_signal[SIGPIPE] == 0) {
+                    // SIGPIPE with the default action; no core dump
+                    exit(context, SIGPIPE);
                 }
             }
         },
         open (5, 2) {
-            @Override public void call(List<Integer> args, Context context) {
-                String fname = getFileName(args.get(0), context);
-                int mode = args.get(1) + 1;
+            @Override public void call(int[] args, Context context) {
+                String fname = getFileName(args[0], context);
+                int mode = args[1] + 1;
                 int fd = context.u.fileOpen(fname, mode);
                 if (context.u.u_error == 0) {
                     context.u.u_r.r_val1 = fd;
@@ -209,49 +282,25 @@ class Kernel {
             }
         },
         close (6, 1) {
-            @Override public void call(List<Integer> args, Context context) {
-                int fd = args.get(0);
+            @Override public void call(int[] args, Context context) {
+                int fd = args[0];
                 context.u.fileClose(fd);
             }
         },
         wait (7, 0) {
-            @Override public void call(List<Integer> args, Context context) {
-                Proc p = context.u.u_procp;
-                boolean isFound = false;
-                do {
-                    Iterator iter = procSet.iterator();
-                    while (iter.hasNext()) {
-                        Proc p2 = (Proc)iter.next();
-                        if (p2.p_ppid == p.p_pid) {
-                            isFound = true;
-                            if (p2.p_stat == SZOMB) {
-                                context.u.u_r.r_val1 = p2.p_pid;
-                                context.u.u_r.r_val2 = p2.xp_xstat;
-                                p2.freePid();
-                                procSet.remove(p2);
-                                return;
-                            }
-                        }
-                    }
-                    if (isFound) {
-                        try {
-                            Context.class.wait();
-                        } catch (InterruptedException e) {}
-                    }
-                } while (isFound);
-
-                context.u.u_error = ECHILD;
+            @Override public void call(int[] args, Context context) {
+                waitChild(context, 0);
             }
         },
         creat (8, 2) {
-            @Override public void call(List<Integer> args, Context context) {
-                String fname = getFileName(args.get(0), context, FileNameOption.NOCHANGE_BLANK);
+            @Override public void call(int[] args, Context context) {
+                String fname = getFileName(args[0], context, FileNameOption.NOCHANGE_BLANK);
                 if (fname.isEmpty()) {
                     context.u.u_error = ENOENT;
                     return;
                 }
 
-                int fmode = args.get(1);
+                int fmode = args[1];
                 int fd = context.u.fileCreate(fname, fmode);
                 if (context.u.u_error == 0) {
                     context.u.u_r.r_val1 = fd;
@@ -259,18 +308,35 @@ class Kernel {
             }
         },
         link (9, 2) {
-            @Override public void call(List<Integer> args, Context context) {
-                Path target = Paths.get(getFileName(args.get(0), context));
+            @Override public void call(int[] args, Context context) {
+                String targetname = getFileName(args[0], context);
+                Path target = Paths.get(targetname);
 
-                String linkname = getFileName(args.get(1), context, FileNameOption.NOCHANGE_BLANK);
+                String linkname = getFileName(args[1], context, FileNameOption.NOCHANGE_BLANK);
                 if (linkname.isEmpty()) {
                     context.u.u_error = ENOENT;
                     return;
                 }
                 Path link = Paths.get(linkname);
 
+                String targetKey = TmpFs.key(targetname);
+                String linkKey = TmpFs.key(linkname);
+                if (targetKey != null || linkKey != null) {
+                    if (targetKey == null || linkKey == null) {
+                        context.u.u_error = EXDEV;
+                        return;
+                    }
+                    try {
+                        context.u.u_tmpfs.link(targetKey, linkKey);
+                    } catch (FileItemException e) {
+                        context.u.u_error = e.error;
+                    }
+                    return;
+                }
+
                 try {
                     Files.createLink(link, target);
+                    FileCache.invalidate(linkname);
                 } catch (NoSuchFileException x) {
                     context.u.u_error = ENOENT;
                 } catch (FileAlreadyExistsException x) {
@@ -281,81 +347,106 @@ class Kernel {
             }
         },
         unlink (10, 1) {
-            @Override public void call(List<Integer> args, Context context) {
-                String fname = getFileName(args.get(0), context, FileNameOption.NOCHANGE_BLANK);
-                File file = new File(fname);
-                if (!file.exists() || fname.isEmpty()) {
+            @Override public void call(int[] args, Context context) {
+                String fname = getFileName(args[0], context, FileNameOption.NOCHANGE_BLANK);
+                String key = fname.isEmpty() ? null : TmpFs.key(fname);
+                if (key != null && !key.isEmpty()) {
+                    try {
+                        context.u.u_tmpfs.unlink(key);
+                    } catch (FileItemException e) {
+                        context.u.u_error = e.error;
+                    }
+                    return;
+                }
+
+                if (fname.isEmpty() || !FileCache.get(fname).exists) {
                     context.u.u_error = ENOENT;
                     return;
                 }
-                if (!file.delete()) {
+                if (!new File(fname).delete()) {
                     context.u.u_error = EBUSY;
                 }
+                FileCache.invalidate(fname);
             }
         },
         exec (11, 2),
-        chdir (12, 1),
+        chdir (12, 1) {
+            @Override public void call(int[] args, Context context) {
+                String dirname = getFileName(args[0], context);
+                FileCache.Attrs attrs = FileCache.get(dirname);
+                if (!attrs.exists) {
+                    context.u.u_error = ENOENT;
+                } else if (!attrs.isDirectory) {
+                    context.u.u_error = ENOTDIR;
+                } else {
+                    context.u.u_cdir = Paths.get(dirname).normalize().toString();
+                }
+            }
+        },
         time (13, 0),
         mknod (14, 3),
         chmod (15, 2) {
-            @Override public void call(List<Integer> args, Context context) {
-                File file = new File(getFileName(args.get(0), context));
-                if (!file.exists()) {
+            @Override public void call(int[] args, Context context) {
+                String fname = getFileName(args[0], context);
+                int fmode = args[1];
+                TmpFs.MemFile memFile = lookupTmp(fname, context);
+                if (context.u.u_error != 0) {
+                    return;
+                }
+                if (memFile != null) {
+                    memFile.mode = fmode;
+                    return;
+                }
+
+                if (!FileCache.get(fname).exists) {
                     context.u.u_error = ENOENT;
                     return;
                 }
 
-                int fmode = args.get(1);
-                if (!setFileMode(file, fmode)) {
+                if (!setFileMode(new File(fname), fmode)) {
                     context.u.u_error = EPERM;
                 }
+                FileCache.invalidate(fname);
             }
         },
         chown (16, 3),
-        sbreak (17, 1),
+        sbreak (17, 1) {
+            @Override public void call(int[] args, Context context) {
+                if (!context.memory.setBreak(args[0])) {
+                    context.u.u_error = ENOMEM;
+                }
+            }
+        },
         stat (18, 2) {
-            @Override public void call(List<Integer> args, Context context) {
-                Path filePath = Paths.get(getFileName(args.get(0), context));
-                if (!Files.exists(filePath, NOFOLLOW_LINKS)) {
-                    context.u.u_error = ENOENT;
+            @Override public void call(int[] args, Context context) {
+                String fname = getFileName(args[0], context);
+                TmpFs.MemFile memFile = lookupTmp(fname, context);
+                if (context.u.u_error != 0) {
+                    return;
+                }
+                if (memFile != null) {
+                    int mtime = (int)(memFile.mtime / 1000);
+                    storeStat(args[1], IFREG, memFile.size(), mtime, mtime, context);
                     return;
                 }
 
-                BasicFileAttributes attrs;
-                try {
-                    attrs = Files.readAttributes(filePath, BasicFileAttributes.class, NOFOLLOW_LINKS);
-                } catch (IOException e) {
-                    context.u.u_error = EFAULT;
+                FileCache.Attrs attrs = FileCache.get(fname);
+                if (!attrs.exists) {
+                    context.u.u_error = ENOENT;
                     return;
                 }
 
-                final int StatSize = 32;
-                ByteBuffer statBuf = ByteBuffer.allocate(StatSize).order(ByteOrder.LITTLE_ENDIAN);
-                statBuf.putShort((short)0);                                 // st_dev
-                statBuf.putShort((short)0);                                 // st_ino
-                short st_mode = (short)(attrs.isRegularFile() ? IFREG :
-                                        attrs.isDirectory()   ? IFDIR :
-                                        0);
-                statBuf.putShort(st_mode);                                  // st_mode
-                statBuf.putShort((short)0);                                 // st_nlink
-                statBuf.putShort((short)0);                                 // st_uid
-                statBuf.putShort((short)0);                                 // st_gid
-                statBuf.putShort((short)0);                                 // st_rdev
-                statBuf.putShort((short)0);                                 // padding
-                statBuf.putInt((int)attrs.size());                          // st_size
-                statBuf.putInt((int)attrs.lastAccessTime().to(SECONDS));    // st_atime
-                statBuf.putInt((int)attrs.lastModifiedTime().to(SECONDS));  // st_mtime
-                statBuf.putInt(0);                                          // st_ctime
-
-                int addr = args.get(1);
-                context.memory.storeBytes(addr, statBuf.array(), StatSize);
+                int st_mode = attrs.isRegularFile ? IFREG :
+                              attrs.isDirectory   ? IFDIR :
+                              0;
+                storeStat(args[1], st_mode, attrs.size, attrs.atime, attrs.mtime, context);
             }
         },
         seek (19, 3) {
-            @Override public void call(List<Integer> args, Context context) {
-                int fd = args.get(0);
-                int offset = args.get(1);
-                int sbase = args.get(2);
+            @Override public void call(int[] args, Context context) {
+                int fd = args[0];
+                int offset = args[1];
+                int sbase = args[2];
                 int newOff = context.u.fileSeek(fd, offset, sbase);
                 if (context.u.u_error == 0) {
                     context.u.u_r.r_val1 = newOff;
@@ -363,7 +454,7 @@ class Kernel {
             }
         },
         getpid (20, 0) {
-            @Override public void call(List<Integer> args, Context context) {
+            @Override public void call(int[] args, Context context) {
                 context.u.u_r.r_val1 = context.u.u_procp.p_pid;
                 context.u.u_r.r_val2 = context.u.u_procp.p_ppid;
             }
@@ -381,26 +472,38 @@ class Kernel {
         stty (31, 2),
         gtty (32, 2),
         access (33, 2) {
-            @Override public void call(List<Integer> args, Context context) {
-                File file = new File(getFileName(args.get(0), context));
-                if (!file.exists()) {
+            @Override public void call(int[] args, Context context) {
+                String fname = getFileName(args[0], context);
+                int fmode = args[1];
+                TmpFs.MemFile memFile = lookupTmp(fname, context);
+                if (context.u.u_error != 0) {
+                    return;
+                }
+                if (memFile != null) {
+                    if ((fmode << 6 & ~memFile.mode & (IREAD | IWRITE | IEXEC)) != 0) {
+                        context.u.u_error = EACCES;
+                    }
+                    return;
+                }
+
+                FileCache.Attrs attrs = FileCache.get(fname);
+                if (!attrs.exists) {
                     context.u.u_error = ENOENT;
                     return;
                 }
 
-                int fmode = args.get(1);
                 if ((fmode & IREAD >> 6) != 0) {
-                    if (!file.canRead()) {
+                    if (!attrs.canRead()) {
                         context.u.u_error = EACCES;
                     }
                 }
                 if ((fmode & IWRITE >> 6) != 0) {
-                    if (!file.canWrite()) {
+                    if (!attrs.canWrite()) {
                         context.u.u_error = EACCES;
                     }
                 }
                 if ((fmode & IEXEC >> 6) != 0) {
-                    if (!file.canExecute()) {
+                    if (!attrs.canExecute()) {
                         context.u.u_error = EACCES;
                     }
                 }
@@ -411,8 +514,8 @@ class Kernel {
         sync (36, 0),
         kill (37, 2),
         dup (41, 2) {
-            @Override public void call(List<Integer> args, Context context) {
-                int fd1 = args.get(0);
+            @Override public void call(int[] args, Context context) {
+                int fd1 = args[0];
                 int fd2;
                 int m = fd1 & ~0x3f;
                 fd1 &= 0x3f;
@@ -420,7 +523,7 @@ class Kernel {
                 if ((m & 0x40) == 0) {
                     fd2 = context.u.fileDup(fd1);
                 } else {
-                    fd2 = args.get(1);
+                    fd2 = args[1];
                     context.u.fileDup(fd1, fd2);
                 }
                 if (context.u.u_error == 0) {
@@ -428,29 +531,37 @@ class Kernel {
                 }
             }
         },
-        pipe (42, 0),
+        pipe (42, 0) {
+            @Override public void call(int[] args, Context context) {
+                int[] fds = context.u.pipe();
+                if (context.u.u_error == 0) {
+                    context.u.u_r.r_val1 = fds[0];
+                    context.u.u_r.r_val2 = fds[1];
+                }
+            }
+        },
         times (43, 1),
         prof (44, 4),
         setgid (46, 1),
         getgid (47, 0),
         sig (48, 2) {
-            @Override public void call(List<Integer> args, Context context) {
-                int signo = args.get(0);
+            @Override public void call(int[] args, Context context) {
+                int signo = args[0];
                 if (signo <= 0 || signo >= NSIG || signo == 9) { // 9: SIGKIL
                     context.u.u_error = EINVAL;
                     return;
                 }
                 context.u.u_r.r_val1 = context.u.u_signal[signo];
-                context.u.u_signal[signo] = args.get(1);
+                context.u.u_signal[signo] = args[1];
             }
         },
         sysacct (51, 1),
         sysphys (52, 3),
         syslock (53, 1),
         ioctl (54, 3) {
-            @Override public void call(List<Integer> args, Context context) {
-                int fd = args.get(0);
-                boolean isFile = context.u.isNormalFile(fd);
+            @Override public void call(int[] args, Context context) {
+                int fd = args[0];
+                boolean isFile = context.u.isNormalFile(fd) || context.u.isPipe(fd);
                 if (context.u.u_error == 0) {
                     if (isFile) {
                         context.u.u_error = ENOTTY;
@@ -460,100 +571,44 @@ class Kernel {
         },
         mpxchan (56, 4),
         exece (59, 3) {
-            @Override public void call(List<Integer> args, Context context) {
-                String fname = getFileName(args.get(0), context);
-                File file = new File(fname);
-                if (!file.exists()) {
-                    context.u.u_error = ENOENT;
-                    return;
-                }
-                if (!file.canExecute() || !file.isFile()) {
-                    context.u.u_error = EACCES;
+            @Override public void call(int[] args, Context context) {
+                String fname = getFileName(args[0], context);
+                TmpFs.MemFile memFile = lookupTmp(fname, context);
+                if (context.u.u_error != 0) {
                     return;
                 }
-
-                List<byte[]> argBuf = new ArrayList<>();
-                List<byte[]> envBuf = new ArrayList<>();
-                int nChars = 0;
-
-                int argp = args.get(1);
-                if (argp != 0) {
-                    do {
-                        int ap = context.memory.load(argp, DataType.L).uint();
-                        argp += NBPW;
-                        if (ap == 0) {
-                            break;
-                        }
-
-                        byte[] arg = context.memory.loadStringBytes(ap);
-                        if (nChars + arg.length >= NCARGS - 1) {
-                            context.u.u_error = E2BIG;
-                            return;
-                        }
-                        argBuf.add(arg);
-                        nChars += arg.length;
-                    } while (true);
-
-                    int envp = args.get(2);
-                    do {
-                        int ap = context.memory.load(envp, DataType.L).uint();
-                        envp += NBPW;
-                        if (ap == 0) {
-                            break;
-                        }
-
-                        byte[] env = context.memory.loadStringBytes(ap);
-                        if (nChars + env.length >= NCARGS - 1) {
-                            context.u.u_error = E2BIG;
-                            return;
-                        }
-                        envBuf.add(env);
-                        nChars += env.length;
-                    } while (true);
-                }
-
-                boolean loadTextFileSucceeded;
-                try {
-                    loadTextFileSucceeded = context.memory.loadTextfile(fname);
-                } catch (IOException e) {
-                    loadTextFileSucceeded = false;
-                }
-                if (!loadTextFileSucceeded) {
-                    context.u.u_error = ENOEXEC;
-                    return;
+                byte[] image = null;
+                if (memFile != null) {
+                    if ((memFile.mode & IEXEC) == 0) {
+                        context.u.u_error = EACCES;
+                        return;
+                    }
+                    image = memFile.contents();
+                } else {
+                    FileCache.Attrs attrs = FileCache.get(fname);
+                    if (!attrs.exists) {
+                        context.u.u_error = ENOENT;
+                        return;
+                    }
+                    if (!attrs.canExecute() || !attrs.isRegularFile) {
+                        context.u.u_error = EACCES;
+                        return;
+                    }
                 }
 
-
-                nChars = nChars + (NBPW - 1) & ~(NBPW - 1);
-                int ucp = MEM_SIZE - nChars - NBPW;
-                int ap = ucp - (argBuf.size() + envBuf.size() + 3) * NBPW;
-                context.register[SP] = ap;
-                context.memory.store(ap, new IntData(argBuf.size()));
-                ap += NBPW;
-                for (byte[] arg: argBuf) {
-                    context.memory.store(ap, new IntData(ucp));
-                    ap += NBPW;
-                    context.memory.storeBytes(ucp, arg, arg.length);
-                    ucp += arg.length;
-                }
-                context.memory.store(ap, new IntData(0));
-                ap += NBPW;
-                for (byte[] env: envBuf) {
-                    context.memory.store(ap, new IntData(ucp));
-                    ap += NBPW;
-                    context.memory.storeBytes(ucp, env, env.length);
-                    ucp += env.length;
-                }
-                context.memory.store(ap, new IntData(0));
-                context.memory.store(ucp, new IntData(0));
-
-                // setregs
-                for (int i = 0; i < NSIG; i++) {
-                    if ((context.u.u_signal[i] & 1) == 0) {
-                        context.u.u_signal[i] = 0;
+                if (image == null && context.log != null) {
+                    // log the very bytes that get loaded
+                    try {
+                        image = Files.readAllBytes(Paths.get(fname));
+                    } catch (IOException e) {
+                        context.u.u_error = ENOEXEC;
+                        return;
                     }
                 }
-                context.register[PC] = 2; /* skip over entry mask */
+                exec(args, fname, image, context);
+                if (context.log != null && context.u.u_error == 0) {
+                    context.log.loaded(fname, image);
+                }
             }
         },
         umask (60, 1),
@@ -567,24 +622,205 @@ class Kernel {
             this.narg = narg;
         }
 
-        private final static HashMap<Integer, Sysent> sysentMap;
+        // indexed by the syscall number; unassigned numbers go to indir
+        private final static Sysent[] sysentTable = new Sysent[64];
         static {
-            sysentMap = new HashMap<>(Sysent.values().length);
+            Arrays.fill(sysentTable, indir);
             for (Sysent entry : Sysent.values()) {
-                sysentMap.put(entry.number, entry);
+                sysentTable[entry.number] = entry;
             }
         }
 
         public static Sysent getSysent(int num) {
-            Sysent entry = sysentMap.get(num);
-            if (entry != null) {
-                return entry;
-            } else {
-                return indir;
+            return sysentTable[num & 0x3f];
+        }
+
+        /*
+         * args holds the first narg longwords of the arguments, which
+         * start at u_ap in guest memory.
+         */
+        public void call(int[] args, Context context) {}
+
+        /*
+         * Wait for the child pid, or any child if pid is 0.
+         */
+        static void waitChild(Context context, int pid) {
+            Proc p = context.u.u_procp;
+            boolean isFound = false;
+            synchronized (procSet) {
+                do {
+                    if (p.p_sig != 0) {
+                        context.u.u_error = EINTR;
+                        return;
+                    }
+                    Iterator iter = procSet.iterator();
+                    while (iter.hasNext()) {
+                        Proc p2 = (Proc)iter.next();
+                        if (p2.p_ppid == p.p_pid && (pid == 0 || p2.p_pid == pid)) {
+                            isFound = true;
+                            if (p2.p_stat == SZOMB) {
+                                context.u.u_r.r_val1 = p2.p_pid;
+                                context.u.u_r.r_val2 = p2.xp_xstat;
+                                p2.freePid();
+                                procSet.remove(p2);
+                                return;
+                            }
+                        }
+                    }
+                    if (isFound) {
+                        try {
+                            procSet.wait();
+                        } catch (InterruptedException e) {}
+                    }
+                } while (isFound);
             }
+
+            context.u.u_error = ECHILD;
         }
 
-        public void call(List<Integer> args, Context context) {}
+        /*
+         * The rest of exece once fname is found: copy the arguments, load
+         * the image (from fname if null) and set up the stack.
+         */
+        static void exec(int[] args, String fname, byte[] image, Context context) {
+            List<byte[]> argBuf = new ArrayList<>();
+            List<byte[]> envBuf = new ArrayList<>();
+            int nChars = 0;
+
+            int argp = args[1];
+            if (argp != 0) {
+                do {
+                    int ap = context.memory.loadInt(argp, DataType.L);
+                    argp += NBPW;
+                    if (ap == 0) {
+                        break;
+                    }
+
+                    byte[] arg = context.memory.loadStringBytes(ap);
+                    if (nChars + arg.length >= NCARGS - 1) {
+                        context.u.u_error = E2BIG;
+                        return;
+                    }
+                    argBuf.add(arg);
+                    nChars += arg.length;
+                } while (true);
+
+                int envp = args[2];
+                do {
+                    int ap = context.memory.loadInt(envp, DataType.L);
+                    envp += NBPW;
+                    if (ap == 0) {
+                        break;
+                    }
+
+                    byte[] env = context.memory.loadStringBytes(ap);
+                    if (nChars + env.length >= NCARGS - 1) {
+                        context.u.u_error = E2BIG;
+                        return;
+                    }
+                    envBuf.add(env);
+                    nChars += env.length;
+                } while (true);
+            }
+
+            boolean loadTextFileSucceeded;
+            try {
+                loadTextFileSucceeded = image != null ? context.memory.loadImage(image)
+                                                      : context.memory.loadTextfile(fname);
+            } catch (IOException e) {
+                loadTextFileSucceeded = false;
+            }
+            if (!loadTextFileSucceeded) {
+                context.u.u_error = ENOEXEC;
+                return;
+            }
+            if (context.profiler != null) {
+                context.profiler.finish(context.u.u_cdir, context.u.u_procp.p_pid);
+                context.profiler = Profiler.start(fname, context);
+            }
+            if (context.trace != null) {
+                context.trace.image(fname);
+            }
+
+
+            nChars = nChars + (NBPW - 1) & ~(NBPW - 1);
+            int ucp = MEM_SIZE - nChars - NBPW;
+            int ap = ucp - (argBuf.size() + envBuf.size() + 3) * NBPW;
+            context.register[SP] = ap;
+            context.memory.storeInt(ap, argBuf.size(), DataType.L);
+            ap += NBPW;
+            for (byte[] arg: argBuf) {
+                context.memory.storeInt(ap, ucp, DataType.L);
+                ap += NBPW;
+                context.memory.storeBytes(ucp, arg, arg.length);
+                ucp += arg.length;
+            }
+            context.memory.storeInt(ap, 0, DataType.L);
+            ap += NBPW;
+            for (byte[] env: envBuf) {
+                context.memory.storeInt(ap, ucp, DataType.L);
+                ap += NBPW;
+                context.memory.storeBytes(ucp, env, env.length);
+                ucp += env.length;
+            }
+            context.memory.storeInt(ap, 0, DataType.L);
+            context.memory.storeInt(ucp, 0, DataType.L);
+
+            context.u.flush();
+
+            // setregs
+            for (int i = 0; i < NSIG; i++) {
+                if ((context.u.u_signal[i] & 1) == 0) {
+                    context.u.u_signal[i] = 0;
+                }
+            }
+            context.register[PC] = 2; /* skip over entry mask */
+        }
+
+        /*
+         * Terminate the process with the wait status xstat: the exit code
+         * in the high byte, or the number of the killing signal.
+         */
+        static void exit(Context context, int xstat) {
+            if (context.profiler != null) {
+                context.profiler.finish(context.u.u_cdir, context.u.u_procp.p_pid);
+                context.profiler = null;
+            }
+            context.u.exit();
+            context.memory.release();
+
+            Proc p = context.u.u_procp;
+            synchronized (procSet) {
+                p.p_stat = SZOMB;
+                p.xp_xstat = (short)xstat;
+
+                // nobody will wait for the children any more
+                Iterator<Proc> iter = procSet.iterator();
+                while (iter.hasNext()) {
+                    Proc q = iter.next();
+                    if (q.p_ppid == p.p_pid) {
+                        if (q.p_stat == SZOMB) {
+                            q.freePid();
+                            iter.remove();
+                        } else {
+                            q.p_ppid = startPid;
+                        }
+                    }
+                }
+
+                if (p.p_ppid == startPid) {
+                    // started from outside; the status stays in Proc
+                    p.freePid();
+                    procSet.remove(p);
+                }
+
+                for (Proc q : procSet) {
+                    if (p.p_ppid == q.p_pid) {
+                        procSet.notifyAll();
+                    }
+                }
+            }
+        }
 
         private enum FileNameOption {
             NOCHANGE_BLANK;
@@ -593,15 +829,52 @@ class Kernel {
             byte[] strBytes = context.memory.loadStringBytes(addr);
             String fname = new String(strBytes, 0, strBytes.length - 1, StandardCharsets.US_ASCII);
             if (fname.startsWith("/")) {
-                fname = Paths.get(rootPath, fname).toString();
+                fname = new File(rootPath, fname).getPath();
             }
             if (fname.isEmpty() && !Arrays.asList(option).contains(FileNameOption.NOCHANGE_BLANK)) {
                 fname = ".";
             }
+            if (!fname.isEmpty() && !new File(fname).isAbsolute()) {
+                fname = new File(context.u.u_cdir, fname).getPath();
+            }
 
             return fname;
         }
 
+        /*
+         * The in-memory /tmp file named fname, or null if fname is not
+         * one. A missing /tmp file sets ENOENT as well.
+         */
+        private static TmpFs.MemFile lookupTmp(String fname, Context context) {
+            String key = TmpFs.key(fname);
+            if (key == null || key.isEmpty()) {
+                return null;
+            }
+            TmpFs.MemFile file = context.u.u_tmpfs.lookup(key);
+            if (file == null) {
+                context.u.u_error = ENOENT;
+            }
+            return file;
+        }
+
+        private static void storeStat(int addr, int st_mode, int size, int atime, int mtime, Context context) {
+            final int StatSize = 32;
+            ByteBuffer statBuf = ByteBuffer.allocate(StatSize).order(ByteOrder.LITTLE_ENDIAN);
+            statBuf.putShort((short)0);         // st_dev
+            statBuf.putShort((short)0);         // st_ino
+            statBuf.putShort((short)st_mode);   // st_mode
+            statBuf.putShort((short)0);         // st_nlink
+            statBuf.putShort((short)0);         // st_uid
+            statBuf.putShort((short)0);         // st_gid
+            statBuf.putShort((short)0);         // st_rdev
+            statBuf.putShort((short)0);         // padding
+            statBuf.putInt(size);               // st_size
+            statBuf.putInt(atime);              // st_atime
+            statBuf.putInt(mtime);              // st_mtime
+            statBuf.putInt(0);                  // st_ctime
+            context.memory.storeBytes(addr, statBuf.array(), StatSize);
+        }
+
         public static boolean setFileMode(File file, int fmode) {
             boolean rSet = file.setReadable((fmode & IREAD) != 0, (fmode & IREAD >> 6) == 0);
             boolean wSet = file.setWritable((fmode & IWRITE) != 0, (fmode & IWRITE >> 6) == 0);
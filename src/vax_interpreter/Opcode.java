@@ -1,5 +1,6 @@
 package vax_interpreter;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import static vax_interpreter.Util.*;
 import static vax_interpreter.DataType.*;
@@ -22,7 +23,10 @@ enum DataType {
 }
 
 class Opcode {
-    private final static HashMap<Integer, ICode> codeMap;
+    private final static int EscapeBase = 0xfd;   /* 0xfd, 0xfe, 0xff pages */
+
+    private final static Opcode[] codeTable = new Opcode[256];
+    private final static Opcode[][] escapeTables = new Opcode[3][256];
     static {
         ICode[][] codes = {
             Nop.values(),
@@ -35,9 +39,13 @@ class Opcode {
             Mneg.values(),
             FMneg.values(),
             Add.values(),
+            FAdd.values(),
             Sub.values(),
+            FSub.values(),
             Mul.values(),
+            FMul.values(),
             Div.values(),
+            FDiv.values(),
             Bit.values(),
             Bis.values(),
             Bic.values(),
@@ -48,9 +56,12 @@ class Opcode {
             Ash.values(),
             Tst.values(),
             Cmp.values(),
+            FCmp.values(),
             Ext.values(),
             Insv.values(),
             Jmp.values(),
+            Jsb.values(),
+            Rsb.values(),
             Br.values(),
             Bb.values(),
             Blb.values(),
@@ -61,42 +72,62 @@ class Opcode {
             Aob.values(),
             Sob.values(),
             Cvt.values(),
+            FCvt.values(),
+            Poly.values(),
+            Emod.values(),
             Cvtlp.values(),
+            Cvtpl.values(),
+            Addp.values(),
+            Cmpp.values(),
+            Ashp.values(),
             Acb.values(),
             Movc.values(),
             Cmpc.values(),
             Locc.values(),
+            Scanc.values(),
+            Movtc.values(),
+            Matchc.values(),
             Movp.values(),
             Editpc.values()
         };
-        codeMap = new HashMap<>();
         for (ICode[] codesArray : codes) {
             for (ICode opc : codesArray) {
-                codeMap.put(opc.bin(), opc);
+                int bin = opc.bin();
+                if (bin <= 0xff) {
+                    codeTable[bin] = new Opcode(opc);
+                } else {
+                    escapeTables[(bin & 0xff) - EscapeBase][bin >> 8] = new Opcode(opc);
+                }
             }
         }
     }
 
     private final ICode code;
-    private static Context context;
     protected Opcode(ICode code) {
         this.code = code;
     }
 
     public static Opcode fetch(Context context) {
-        int bin = 0;
-        for (int i = 0; i < 2; i++) {
-            int val = context.readText();
-            if (val == -1) {
-                return null;
-            }
-            bin += val << i * 8;
-            ICode opc = codeMap.get(bin);
+        int val1 = context.readText();
+        if (val1 == -1) {
+            return null;
+        }
+        Opcode opc = codeTable[val1];
+        if (opc != null) {
+            return opc;
+        }
+
+        int val2 = context.readText();
+        if (val2 == -1) {
+            return null;
+        }
+        if (val1 >= EscapeBase) {
+            opc = escapeTables[val1 - EscapeBase][val2];
             if (opc != null) {
-                return new Opcode(opc);
+                return opc;
             }
         }
-        return new Nullcode(bin);
+        return new Nullcode(val1 | val2 << 8);
     }
 
     public DataType[] operands() {
@@ -111,9 +142,8 @@ class Opcode {
         return code.bin() <= 0xff ? 1 : 2;
     }
 
-    public void execute(List<Operand> oprs, Context c) {
-        context = c;
-        code.execute(oprs);
+    public void execute(List<Operand> oprs, Context context) {
+        code.execute(oprs, context);
     }
 
 
@@ -121,7 +151,7 @@ class Opcode {
         public int bin();
         public DataType[] operands();
         public String mnemonic();
-        public void execute(List<Operand> oprs);
+        public void execute(List<Operand> oprs, Context context);
     }
 
 
@@ -148,7 +178,7 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
+        @Override public void execute(List<Operand> oprs, Context context) {
         }
     }
 
@@ -179,12 +209,37 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            Operand src = oprs.get(0);
             Operand dest = oprs.get(1);
-            dest.setValue(srcVal);
-            context.flagN.set( srcVal.isNegValue() );
-            context.flagZ.set( srcVal.isZeroValue() );
+            DataType type = operands[0];
+            switch (type.size) {
+            case 16: {
+                IntData srcVal = src.getValue();
+                dest.setValue(srcVal);
+                context.flagN.set( srcVal.isNegValue() );
+                context.flagZ.set( srcVal.isZeroValue() );
+                break;
+            }
+            case 8: {
+                long srcVal = src.getLong();
+                dest.setLong(srcVal);
+                context.flagN.set( Calculator.isNegative(srcVal, type) );
+                context.flagZ.set( srcVal == 0 );
+                break;
+            }
+            default: {
+                int srcVal = src.getInt();
+                dest.setInt(srcVal);
+                if (type == F) {
+                    context.flagN.set( Calculator.isNegative(srcVal, type) );
+                    context.flagZ.set( srcVal == 0 );
+                    break;
+                }
+                context.setLogicFlags(srcVal);
+                return;
+            }
+            }
             context.flagV.clear();
         }
     }
@@ -213,15 +268,11 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
-            IntData setVal = new IntData(srcVal.uint(), operands[1]);
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int setVal = Calculator.zeroExtend(oprs.get(0).getInt(), operands[0]);
             Operand dest = oprs.get(1);
-            dest.setValue(setVal);
-            context.flagN.clear();
-            context.flagZ.set( setVal.isZeroValue() );
-            context.flagV.clear();
-            context.flagC.clear();
+            dest.setInt(setVal);
+            context.setTestFlags(setVal);
         }
     }
 
@@ -248,12 +299,10 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int srcVal = oprs.get(0).getInt();
             context.push(srcVal);
-            context.flagN.set( srcVal.isNegValue() );
-            context.flagZ.set( srcVal.isZeroValue() );
-            context.flagV.clear();
+            context.setLogicFlags(srcVal);
         }
     }
 
@@ -282,13 +331,11 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData addr = new IntData( ((Address)oprs.get(0)).getAddress() );
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int addr = ((Address)oprs.get(0)).getAddress();
             Operand dest = oprs.get(1);
-            dest.setValue(addr);
-            context.flagN.set( addr.isNegValue() );
-            context.flagZ.set( addr.isZeroValue() );
-            context.flagV.clear();
+            dest.setInt(addr);
+            context.setLogicFlags(addr);
         }
     }
 
@@ -317,12 +364,10 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData addr = new IntData( ((Address)oprs.get(0)).getAddress() );
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int addr = ((Address)oprs.get(0)).getAddress();
             context.push(addr);
-            context.flagN.set( addr.isNegValue() );
-            context.flagZ.set( addr.isZeroValue() );
-            context.flagV.clear();
+            context.setLogicFlags(addr);
         }
     }
 
@@ -350,15 +395,12 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int srcVal = oprs.get(0).getInt();
             Operand dest = oprs.get(1);
-            IntData com = IntData.bitInvert(srcVal);
-            dest.setValue(com);
-            context.flagN.set( com.isNegValue() );
-            context.flagZ.set( com.isZeroValue() );
-            context.flagV.clear();
-            context.flagC.clear();
+            int com = ~srcVal;
+            dest.setInt(com);
+            context.setTestFlags(com);
         }
     }
 
@@ -386,11 +428,11 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int srcVal = oprs.get(0).getInt();
             Operand dest = oprs.get(1);
-            IntData neg = Calculator.sub(new IntData(0, srcVal.dataType()), srcVal, context);
-            dest.setValue(neg);
+            int neg = Calculator.sub(0, srcVal, operands[0], context);
+            dest.setInt(neg);
         }
     }
 
@@ -418,21 +460,50 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            Operand src = oprs.get(0);
+            Operand dest = oprs.get(1);
+            DataType type = operands[0];
+            switch (type.size) {
+            case 16: {
+                IntData srcVal = src.getValue();
 
-            assert !srcVal.isMinusZeroFloatValue() : "Reserved operand fault";
+                assert !srcVal.isMinusZeroFloatValue() : "Reserved operand fault";
 
-            IntData neg;
-            if (srcVal.isZeroValue()) {
-                neg = srcVal;
-            } else {
-                neg = IntData.negativeFloat(srcVal);
+                IntData neg;
+                if (srcVal.isZeroValue()) {
+                    neg = srcVal;
+                } else {
+                    neg = IntData.negativeFloat(srcVal);
+                }
+                dest.setValue(neg);
+                context.flagN.set( neg.isNegValue() );
+                context.flagZ.set( neg.isZeroValue() );
+                break;
+            }
+            case 8: {
+                long srcVal = src.getLong();
+
+                assert srcVal != 0x8000 : "Reserved operand fault";
+
+                long neg = srcVal == 0 ? 0 : srcVal ^ 0x8000;
+                dest.setLong(neg);
+                context.flagN.set( Calculator.isNegative(neg, type) );
+                context.flagZ.set( neg == 0 );
+                break;
+            }
+            default: {
+                int srcVal = src.getInt();
+
+                assert srcVal != 0x8000 : "Reserved operand fault";
+
+                int neg = srcVal == 0 ? 0 : srcVal ^ 0x8000;
+                dest.setInt(neg);
+                context.flagN.set( Calculator.isNegative(neg, type) );
+                context.flagZ.set( neg == 0 );
+                break;
+            }
             }
-            Operand dest = oprs.get(1);
-            dest.setValue(neg);
-            context.flagN.set( neg.isNegValue() );
-            context.flagZ.set( neg.isZeroValue() );
             context.flagV.clear();
             context.flagC.clear();
         }
@@ -463,44 +534,49 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData arg1 = oprs.get(1).getValue();
-            IntData arg2 = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int arg1 = oprs.get(1).getInt();
+            int arg2 = oprs.get(0).getInt();
             Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
-            IntData sum = Calculator.add(arg1, arg2, context);
-            dest.setValue(sum);
+            int sum = Calculator.add(arg1, arg2, operands[0], context);
+            dest.setInt(sum);
         }
     }
 
-    /*enum FAdd implements ICode {
-      ADDF2 (0x40, F,F),   ADDF3 (0x41, F,F,F),
-      ADDD2 (0x60, D,D),   ADDD3 (0x61, D,D,D),
-      ADDG2 (0x40fd, G,G), ADDG3 (0x41fd, G,G,G),
-      ADDH2 (0x60fd, H,H), ADDH3 (0x61fd, H,H,H);
+    enum FAdd implements ICode {
+        ADDF2 (0x40, F,F),   ADDF3 (0x41, F,F,F),
+        ADDD2 (0x60, D,D),   ADDD3 (0x61, D,D,D);
 
-      private final int bin;
-      private final DataType[] operands;
+        private final int bin;
+        private final DataType[] operands;
 
-      private FAdd(int bin, DataType... oprs) {
-      this.bin = bin;
-      this.operands = oprs;
-      }
+        private FAdd(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
 
-      @Override public int bin() {
-      return bin;
-      }
+        @Override public int bin() {
+            return bin;
+        }
 
-      @Override public DataType[] operands() {
-      return operands;
-      }
+        @Override public DataType[] operands() {
+            return operands;
+        }
 
-      @Override public String mnemonic() {
-      return name().toLowerCase(Locale.ENGLISH);
-      }
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
 
-      @Override public void execute(List<Operand> oprs) {
-      }
-      }*/
+        @Override public void execute(List<Operand> oprs, Context context) {
+            DataType type = operands[0];
+            long arg1 = FloatUnit.load(oprs.get(1), type);
+            long arg2 = FloatUnit.load(oprs.get(0), type);
+            Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
+            long sum = FloatUnit.add(arg1, arg2, type);
+            FloatUnit.store(dest, type, sum);
+            FloatUnit.setFlags(sum, context);
+        }
+    }
 
     enum Sub implements ICode {
         SUBB2 (0x82, B,B), SUBB3 (0x83, B,B,B),
@@ -527,44 +603,49 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData arg1 = oprs.get(1).getValue();
-            IntData arg2 = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int arg1 = oprs.get(1).getInt();
+            int arg2 = oprs.get(0).getInt();
             Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
-            IntData diff = Calculator.sub(arg1, arg2, context);
-            dest.setValue(diff);
+            int diff = Calculator.sub(arg1, arg2, operands[0], context);
+            dest.setInt(diff);
         }
     }
 
-    /*enum FSub implements ICode {
-      SUBF2 (0x42, F,F),   SUBF3 (0x43, F,F,F),
-      SUBD2 (0x62, D,D),   SUBD3 (0x63, D,D,D),
-      SUBG2 (0x42fd, G,G), SUBG3 (0x43fd, G,G,G),
-      SUBH2 (0x62fd, H,H), SUBH3 (0x63fd, H,H,H);
+    enum FSub implements ICode {
+        SUBF2 (0x42, F,F),   SUBF3 (0x43, F,F,F),
+        SUBD2 (0x62, D,D),   SUBD3 (0x63, D,D,D);
 
-      private final int bin;
-      private final DataType[] operands;
+        private final int bin;
+        private final DataType[] operands;
 
-      private FSub(int bin, DataType... oprs) {
-      this.bin = bin;
-      this.operands = oprs;
-      }
+        private FSub(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
 
-      @Override public int bin() {
-      return bin;
-      }
+        @Override public int bin() {
+            return bin;
+        }
 
-      @Override public DataType[] operands() {
-      return operands;
-      }
+        @Override public DataType[] operands() {
+            return operands;
+        }
 
-      @Override public String mnemonic() {
-      return name().toLowerCase(Locale.ENGLISH);
-      }
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
 
-      @Override public void execute(List<Operand> oprs) {
-      }
-      }*/
+        @Override public void execute(List<Operand> oprs, Context context) {
+            DataType type = operands[0];
+            long arg1 = FloatUnit.load(oprs.get(1), type);
+            long arg2 = FloatUnit.load(oprs.get(0), type);
+            Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
+            long diff = FloatUnit.sub(arg1, arg2, type);
+            FloatUnit.store(dest, type, diff);
+            FloatUnit.setFlags(diff, context);
+        }
+    }
 
     enum Mul implements ICode {
         MULB2 (0x84, B,B), MULB3 (0x85, B,B,B),
@@ -591,12 +672,47 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData arg1 = oprs.get(0).getValue();
-            IntData arg2 = oprs.get(1).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int arg1 = oprs.get(0).getInt();
+            int arg2 = oprs.get(1).getInt();
+            Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
+            int prod = Calculator.mul(arg1, arg2, operands[0], context);
+            dest.setInt(prod);
+        }
+    }
+
+    enum FMul implements ICode {
+        MULF2 (0x44, F,F),   MULF3 (0x45, F,F,F),
+        MULD2 (0x64, D,D),   MULD3 (0x65, D,D,D);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private FMul(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            DataType type = operands[0];
+            long arg1 = FloatUnit.load(oprs.get(0), type);
+            long arg2 = FloatUnit.load(oprs.get(1), type);
             Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
-            IntData prod = Calculator.mul(arg1, arg2, context);
-            dest.setValue(prod);
+            long prod = FloatUnit.mul(arg1, arg2, type);
+            FloatUnit.store(dest, type, prod);
+            FloatUnit.setFlags(prod, context);
         }
     }
 
@@ -625,25 +741,62 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData divisor = oprs.get(0).getValue();
-            IntData dividend = oprs.get(1).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int divisor = oprs.get(0).getInt();
+            int dividend = oprs.get(1).getInt();
             Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
-            IntData quo = Calculator.div(dividend, divisor, context);
+            DataType type = operands[0];
 
-            if (quo != null) {
-                dest.setValue(quo);
+            if (Calculator.isDivisible(dividend, divisor, type)) {
+                int quo = Calculator.div(dividend, divisor, type, context);
+                dest.setInt(quo);
             } else {
                 if (oprs.size() == 3) {
-                    dest.setValue(dividend);
+                    dest.setInt(dividend);
                 }
-                context.flagN.set( dest.getValue().isNegValue() );
-                context.flagZ.set( dest.getValue().isZeroValue() );
+                context.flagN.set( dividend < 0 );
+                context.flagZ.set( dividend == 0 );
+                context.flagV.set();
                 context.flagC.clear();
             }
         }
     }
 
+    enum FDiv implements ICode {
+        DIVF2 (0x46, F,F),   DIVF3 (0x47, F,F,F),
+        DIVD2 (0x66, D,D),   DIVD3 (0x67, D,D,D);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private FDiv(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            DataType type = operands[0];
+            long arg1 = FloatUnit.load(oprs.get(1), type);
+            long arg2 = FloatUnit.load(oprs.get(0), type);
+            Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
+            long quo = FloatUnit.div(arg1, arg2, type);
+            FloatUnit.store(dest, type, quo);
+            FloatUnit.setFlags(quo, context);
+        }
+    }
+
     enum Bit implements ICode {
         BITB (0x93, B,B), BITW (0xb3, W,W),
         BITL (0xd3, L,L);
@@ -668,13 +821,11 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData arg1 = oprs.get(1).getValue();
-            IntData arg2 = oprs.get(0).getValue();
-            IntData testVal = new IntData(arg1.uint() & arg2.uint(), arg1.dataType());
-            context.flagN.set( testVal.isNegValue() );
-            context.flagZ.set( testVal.isZeroValue() );
-            context.flagV.clear();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int arg1 = oprs.get(1).getInt();
+            int arg2 = oprs.get(0).getInt();
+            int testVal = arg1 & arg2;
+            context.setLogicFlags(testVal);
         }
     }
 
@@ -703,15 +854,13 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData arg1 = oprs.get(1).getValue();
-            IntData arg2 = oprs.get(0).getValue();
-            IntData bisVal = new IntData(arg1.uint() | arg2.uint(), arg1.dataType());
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int arg1 = oprs.get(1).getInt();
+            int arg2 = oprs.get(0).getInt();
+            int bisVal = arg1 | arg2;
             Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
-            dest.setValue(bisVal);
-            context.flagN.set( bisVal.isNegValue() );
-            context.flagZ.set( bisVal.isZeroValue() );
-            context.flagV.clear();
+            dest.setInt(bisVal);
+            context.setLogicFlags(bisVal);
         }
     }
 
@@ -740,15 +889,13 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData arg1 = oprs.get(1).getValue();
-            IntData arg2 = oprs.get(0).getValue();
-            IntData bicVal = new IntData(arg1.uint() & ~arg2.uint(), arg1.dataType());
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int arg1 = oprs.get(1).getInt();
+            int arg2 = oprs.get(0).getInt();
+            int bicVal = arg1 & ~arg2;
             Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
-            dest.setValue(bicVal);
-            context.flagN.set( bicVal.isNegValue() );
-            context.flagZ.set( bicVal.isZeroValue() );
-            context.flagV.clear();
+            dest.setInt(bicVal);
+            context.setLogicFlags(bicVal);
         }
     }
 
@@ -777,15 +924,13 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData arg1 = oprs.get(1).getValue();
-            IntData arg2 = oprs.get(0).getValue();
-            IntData xorVal = new IntData(arg1.uint() ^  arg2.uint(), arg1.dataType());
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int arg1 = oprs.get(1).getInt();
+            int arg2 = oprs.get(0).getInt();
+            int xorVal = arg1 ^ arg2;
             Operand dest = oprs.size() == 3 ? oprs.get(2) : oprs.get(1);
-            dest.setValue(xorVal);
-            context.flagN.set( xorVal.isNegValue() );
-            context.flagZ.set( xorVal.isZeroValue() );
-            context.flagV.clear();
+            dest.setInt(xorVal);
+            context.setLogicFlags(xorVal);
         }
     }
 
@@ -814,13 +959,20 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
+        @Override public void execute(List<Operand> oprs, Context context) {
             Operand dest = oprs.get(0);
-            IntData zero = new IntData(0, operands[0]);
-            dest.setValue(zero);
-            context.flagN.clear();
-            context.flagZ.set();
-            context.flagV.clear();
+            switch (operands[0].size) {
+            case 16:
+                dest.setValue(new IntData(0, operands[0]));
+                break;
+            case 8:
+                dest.setLong(0);
+                break;
+            default:
+                dest.setInt(0);
+                break;
+            }
+            context.setLogicFlags(0);
         }
     }
 
@@ -848,11 +1000,10 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData arg = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
             Operand dest = oprs.get(0);
-            IntData sum = Calculator.add(arg, new IntData(1, arg.dataType()), context);
-            dest.setValue(sum);
+            int sum = Calculator.add(dest.getInt(), 1, operands[0], context);
+            dest.setInt(sum);
         }
     }
 
@@ -880,11 +1031,10 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData arg = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
             Operand dest = oprs.get(0);
-            IntData diff = Calculator.sub(arg, new IntData(1, arg.dataType()), context);
-            dest.setValue(diff);
+            int diff = Calculator.sub(dest.getInt(), 1, operands[0], context);
+            dest.setInt(diff);
         }
     }
 
@@ -911,10 +1061,10 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            int count = oprs.get(0).getValue().sint();
-            IntData srcVal = oprs.get(1).getValue();
-            long src = srcVal.slong();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int count = oprs.get(0).getInt();
+            Operand srcOpr = oprs.get(1);
+            long src = ordinal() == ASHL.ordinal() ? srcOpr.getInt() : srcOpr.getLong();
             Operand dest = oprs.get(2);
 
             long val;
@@ -924,12 +1074,19 @@ class Opcode {
                 int rcount = count < minCount() ? -minCount() : -count;
                 val = src >> rcount;
             }
-            IntData shifted = new IntData(val, srcVal.dataType());
 
-            dest.setValue(shifted);
-            context.flagN.set( shifted.isNegValue() );
-            context.flagZ.set( shifted.isZeroValue() );
-            context.flagV.set( srcVal.isNegValue() != shifted.isNegValue() );
+            boolean isNeg;
+            if (ordinal() == ASHL.ordinal()) {
+                dest.setInt((int)val);
+                isNeg = (int)val < 0;
+                val = (int)val;
+            } else {
+                dest.setLong(val);
+                isNeg = val < 0;
+            }
+            context.flagN.set( isNeg );
+            context.flagZ.set( val == 0 );
+            context.flagV.set( (src < 0) != isNeg );
             context.flagC.clear();
         }
 
@@ -976,10 +1133,33 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
-            context.flagN.set( srcVal.isNegValue() );
-            context.flagZ.set( srcVal.isZeroValue() );
+        @Override public void execute(List<Operand> oprs, Context context) {
+            Operand src = oprs.get(0);
+            DataType type = operands[0];
+            switch (type.size) {
+            case 16: {
+                IntData srcVal = src.getValue();
+                context.flagN.set( srcVal.isNegValue() );
+                context.flagZ.set( srcVal.isZeroValue() );
+                break;
+            }
+            case 8: {
+                long srcVal = src.getLong();
+                context.flagN.set( Calculator.isNegative(srcVal, type) );
+                context.flagZ.set( srcVal == 0 );
+                break;
+            }
+            default: {
+                int srcVal = src.getInt();
+                if (type == F) {
+                    context.flagN.set( Calculator.isNegative(srcVal, type) );
+                    context.flagZ.set( srcVal == 0 );
+                    break;
+                }
+                context.setTestFlags(srcVal);
+                return;
+            }
+            }
             context.flagV.clear();
             context.flagC.clear();
         }
@@ -1009,46 +1189,52 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData lhs = oprs.get(0).getValue();
-            IntData rhs = oprs.get(1).getValue();
-            context.flagN.set( lhs.sint() < rhs.sint() );
-            context.flagZ.set( lhs.sint() == rhs.sint() );
-            context.flagV.clear();
-            context.flagC.set( lhs.uint() < rhs.uint() );
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int lhs = oprs.get(0).getInt();
+            int rhs = oprs.get(1).getInt();
+            DataType type = operands[0];
+            context.setArithFlags(Context.CC_CMP, 0, lhs, rhs, type);
         }
     }
 
-    /*enum FCmp implements ICode {
-      CMPF (0x51, F,F),   CMPD (0x71, D,D),
-      CMPG (0x51fd, G,G), CMPH (0x71fd, H,H);
+    enum FCmp implements ICode {
+        CMPF (0x51, F,F),   CMPD (0x71, D,D);
 
-      private final int bin;
-      private final DataType[] operands;
+        private final int bin;
+        private final DataType[] operands;
 
-      private FCmp(int bin, DataType... oprs) {
-      this.bin = bin;
-      this.operands = oprs;
-      }
+        private FCmp(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
 
-      @Override public int bin() {
-      return bin;
-      }
+        @Override public int bin() {
+            return bin;
+        }
 
-      @Override public DataType[] operands() {
-      return operands;
-      }
+        @Override public DataType[] operands() {
+            return operands;
+        }
 
-      @Override public String mnemonic() {
-      return name().toLowerCase(Locale.ENGLISH);
-      }
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
 
-      @Override public void execute(List<Operand> oprs) {
-      }
-      }*/
+        @Override public void execute(List<Operand> oprs, Context context) {
+            DataType type = operands[0];
+            long lhs = FloatUnit.load(oprs.get(0), type);
+            long rhs = FloatUnit.load(oprs.get(1), type);
+            int cmp = FloatUnit.compare(lhs, rhs);
+            context.flagN.set( cmp < 0 );
+            context.flagZ.set( cmp == 0 );
+            context.flagV.clear();
+            context.flagC.clear();
+        }
+    }
 
     enum Ext implements ICode {
-        EXTV (0xee, L,B,B,L), EXTZV (0xef, L,B,B,L);
+        EXTV (0xee, L,B,B,L), EXTZV (0xef, L,B,B,L),
+        CMPV (0xec, L,B,B,L), CMPZV (0xed, L,B,B,L);
 
         private final int bin;
         private final DataType[] operands;
@@ -1070,17 +1256,17 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            int pos = oprs.get(0).getValue().uint();
-            int size = oprs.get(1).getValue().uint();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int pos = oprs.get(0).getInt();
+            int size = oprs.get(1).getInt() & 0xff;
             Operand base = oprs.get(2);
             Operand dest = oprs.get(3);
 
             assert size <= 32 : "Reserved operand fault";
 
-            IntData extVal;
+            int extVal;
             if (size == 0) {
-                extVal = new IntData(0);
+                extVal = 0;
             }
             else {
                 long srcVal;
@@ -1088,30 +1274,33 @@ class Opcode {
                     assert (pos & 0xffffffffL) <= 31 : "Reserved operand fault";
 
                     int regNum = ((Register)base).regNum;
-                    srcVal = ((long)context.register[regNum + 1] << 32) | context.register[regNum];
+                    srcVal = ((long)context.register[regNum + 1] << 32) |
+                             context.register[regNum] & 0xffffffffL;
                 } else {
-                    int addr = ((Address)base).getAddress() + (pos >>> 5);
-                    pos = pos & 31;
-                    srcVal =
-                        ((long)context.memory.load(addr + 4, DataType.L).uint() << 32) |
-                        context.memory.load(addr, DataType.L).uint();
+                    int addr = ((Address)base).getAddress() + (pos >> 3);
+                    pos = pos & 7;
+                    srcVal = context.memory.loadLong(addr);
                 }
 
                 int lSpace = 64 - (pos + size);
-                int eVal = (int)(isSignExt() ?
-                                 srcVal << lSpace >> (lSpace + pos) :
-                                 srcVal << lSpace >>> (lSpace + pos));
-                extVal = new IntData(eVal, DataType.L);
+                extVal = (int)(isSignExt() ?
+                               srcVal << lSpace >> (lSpace + pos) :
+                               srcVal << lSpace >>> (lSpace + pos));
             }
 
-            dest.setValue(extVal);
-            context.flagN.set( extVal.isNegValue() );
-            context.flagZ.set( extVal.isZeroValue() );
-            context.flagV.clear();
+            switch (this) {
+            case CMPV: case CMPZV:
+                context.setArithFlags(Context.CC_CMP, 0, extVal, dest.getInt(), L);
+                break;
+            default:
+                dest.setInt(extVal);
+                context.setLogicFlags(extVal);
+                break;
+            }
         }
 
         private boolean isSignExt() {
-            return ordinal() == EXTV.ordinal();
+            return this == EXTV || this == CMPV;
         }
     }
 
@@ -1138,35 +1327,38 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            int size = oprs.get(2).getValue().uint();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int size = oprs.get(2).getInt() & 0xff;
 
             assert size <= 32 : "Reserved operand fault";
 
             if (size != 0) {
-                int pos = oprs.get(1).getValue().uint();
-                long srcVal = (long)oprs.get(0).getValue().uint() << pos;
+                int pos = oprs.get(1).getInt();
+                int src = oprs.get(0).getInt();
                 Operand base = oprs.get(3);
                 if (base instanceof Register) {
                     assert (pos & 0xffffffffL) <= 31 : "Reserved operand fault";
 
                     int regNum = ((Register)base).regNum;
+                    long srcVal = (src & 0xffffffffL) << pos;
                     long orgVal =
                         ((long)context.register[regNum + 1] << 32) |
-                        context.register[regNum];
+                        context.register[regNum] & 0xffffffffL;
                     long mask = (~(0xffffffffffffffffL << size)) << pos;
                     long insVal = (orgVal & ~mask) | (srcVal & mask);
-                    context.setRegisterValue(regNum, new IntData(insVal, DataType.Q));
+                    context.register[regNum] = (int)insVal;
+                    if (regNum < PC) {
+                        context.register[regNum + 1] = (int)(insVal >>> 32);
+                    }
                 } else {
-                    int addr = ((Address)base).getAddress() + (pos >>> 5);
-                    pos = pos & 31;
+                    int addr = ((Address)base).getAddress() + (pos >> 3);
+                    pos = pos & 7;
 
-                    long orgVal =
-                        ((long)context.memory.load(addr + 4, DataType.L).uint() << 32) |
-                        context.memory.load(addr, DataType.L).uint();
+                    long srcVal = (src & 0xffffffffL) << pos;
+                    long orgVal = context.memory.loadLong(addr);
                     long mask = (~(0xffffffffffffffffL << size)) << pos;
                     long insVal = (orgVal & ~mask) | (srcVal & mask);
-                    context.memory.store(addr, new IntData(insVal, DataType.Q));
+                    context.memory.storeLong(addr, insVal);
                 }
             }
         }
@@ -1195,11 +1387,69 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
+        @Override public void execute(List<Operand> oprs, Context context) {
+            context.register[PC] = ((Address)oprs.get(0)).getAddress();
+        }
+    }
+
+    enum Jsb implements ICode {
+        JSB (0x16, B),
+        BSBB (0x10, BrB), BSBW (0x30, BrW);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Jsb(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            context.push(context.register[PC]);
             context.register[PC] = ((Address)oprs.get(0)).getAddress();
         }
     }
 
+    enum Rsb implements ICode {
+        RSB (0x5);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Rsb(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            context.register[PC] = context.pop();
+        }
+    }
+
 
     enum Br implements ICode {
         BRB (0x11, BrB) {
@@ -1293,7 +1543,7 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
+        @Override public void execute(List<Operand> oprs, Context context) {
             if (check(context)) {
                 context.register[PC] = ((Address)oprs.get(0)).getAddress();
             }
@@ -1332,8 +1582,8 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            int pos = oprs.get(0).getValue().uint();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int pos = oprs.get(0).getInt();
             Operand base = oprs.get(1);
             Address dest = (Address)oprs.get(2);
 
@@ -1352,12 +1602,12 @@ class Opcode {
             } else {
                 int addr = ((Address)base).getAddress() + (pos >> 3);
                 int bit = 1 << (pos & 7);
-                int targetByte = context.memory.load(addr, DataType.B).uint();
+                int targetByte = context.memory.loadInt(addr, DataType.B);
                 isSet = (targetByte & bit) != 0;
                 if (doesSetBit()) {
-                    context.memory.store(addr, new IntData(targetByte | bit, DataType.B));
+                    context.memory.storeInt(addr, targetByte | bit, DataType.B);
                 } else if (doesClearBit()) {
-                    context.memory.store(addr, new IntData(targetByte & ~bit, DataType.B));
+                    context.memory.storeInt(addr, targetByte & ~bit, DataType.B);
                 }
             }
 
@@ -1413,9 +1663,9 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
-            boolean isSet = (srcVal.uint() & 1) == 1;
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int srcVal = oprs.get(0).getInt();
+            boolean isSet = (srcVal & 1) == 1;
             if (isSet == doesBranchOnSet()) {
                 Address dest = (Address)oprs.get(1);
                 context.register[PC] = dest.getAddress();
@@ -1452,24 +1702,15 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
+        @Override public void execute(List<Operand> oprs, Context context) {
             if (callType() == 'S') {
-                IntData nArgs = oprs.get(0).getValue();
+                int nArgs = oprs.get(0).getInt();
                 context.push(nArgs);
             }
             int preSp = context.register[SP];
-            context.register[SP] &= ~0x3;
-
             int addr = ((Address)oprs.get(1)).getAddress();
-            int entryMask = context.memory.load(addr, DataType.W).uint();
-            for (int i = 11; i >= 0; i--) {
-                if ((entryMask & 1 << i) != 0) {
-                    context.push(context.register[i]);
-                }
-            }
-            context.push(context.register[PC]);
-            context.push(context.register[FP]);
-            context.push(context.register[AP]);
+            CallFrame frame = context.memory.getFrame(addr);
+            int entryMask = frame.entryMask;
 
             context.flagN.clear();
             context.flagZ.clear();
@@ -1482,10 +1723,36 @@ class Opcode {
                 status |= 0b1 << 29;             // S flag
             }
             status |= (entryMask & 0xfff) << 16; // procedure entry mask[0..12]
-            status |= context.psl & 0xffef;      // processor status register[0..15] with T cleard
-            context.push(status);
-
-            context.push(0);
+            status |= context.getPsl() & 0xffef;      // processor status register[0..15] with T cleard
+
+            int sp = (preSp & ~0x3) - frame.size;
+            ByteBuffer b = context.memory.writableBufInPage(sp, frame.size);
+            if (b != null) {
+                // the whole frame is in one page: store it in place
+                int off = sp & Context.Page.Mask;
+                b.putInt(off, 0);
+                b.putInt(off + 4, status);
+                b.putInt(off + 8, context.register[AP]);
+                b.putInt(off + 12, context.register[FP]);
+                b.putInt(off + 16, context.register[PC]);
+                off += CallFrame.FixedSize;
+                for (int i : frame.saved) {
+                    b.putInt(off, context.register[i]);
+                    off += 4;
+                }
+                context.register[SP] = sp;
+            } else {
+                context.register[SP] = preSp & ~0x3;
+                int[] saved = frame.saved;
+                for (int i = saved.length - 1; i >= 0; i--) {
+                    context.push(context.register[saved[i]]);
+                }
+                context.push(context.register[PC]);
+                context.push(context.register[FP]);
+                context.push(context.register[AP]);
+                context.push(status);
+                context.push(0);
+            }
 
             context.register[FP] = context.register[SP];
             if (callType() == 'G') {
@@ -1533,23 +1800,36 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            context.register[SP] = context.register[FP] + 4;
-            int tmp = context.pop();
-            context.register[AP] = context.pop();
-            context.register[FP] = context.pop();
-            context.register[PC] = context.pop();
-
-            int entryMask = (tmp >> 16) & 0xfff;
-            for (int i = 0; i <= 11; i++) {
-                if ((entryMask & 1 << i) != 0) {
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int fp = context.register[FP];
+            int tmp = context.memory.loadInt(fp + 4, DataType.L);
+            int[] saved = CallFrame.saved(tmp >> 16);
+            int size = CallFrame.FixedSize - 4 + saved.length * 4;
+            ByteBuffer b = context.memory.bufInPage(fp + 4, size);
+            if (b != null) {
+                int off = fp + 4 & Context.Page.Mask;
+                context.register[AP] = b.getInt(off + 4);
+                context.register[FP] = b.getInt(off + 8);
+                context.register[PC] = b.getInt(off + 12);
+                off += 16;
+                for (int i : saved) {
+                    context.register[i] = b.getInt(off);
+                    off += 4;
+                }
+                context.register[SP] = fp + 4 + size;
+            } else {
+                context.register[SP] = fp + 8;
+                context.register[AP] = context.pop();
+                context.register[FP] = context.pop();
+                context.register[PC] = context.pop();
+                for (int i : saved) {
                     context.register[i] = context.pop();
                 }
             }
 
             context.register[SP] |= tmp >>> 30;
 
-            context.psl = tmp & 0xffff;
+            context.setPsl(tmp & 0xffff);
 
             boolean isCalledWithS = (tmp & 0b1 << 29) != 0;
             if (isCalledWithS) {
@@ -1582,8 +1862,8 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            int codeNum = oprs.get(0).getValue().uint();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int codeNum = oprs.get(0).getInt() & 0xffff;
             Kernel.syscall(codeNum, context);
         }
     }
@@ -1612,34 +1892,35 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData sel = oprs.get(0).getValue();
-            IntData base = oprs.get(1).getValue();
-            IntData limit = oprs.get(2).getValue();
-            IntData offset = new IntData(sel.sint() - base.sint(), sel.dataType());
+        @Override public void execute(List<Operand> oprs, Context context) {
+            DataType type = operands[0];
+            int sel = oprs.get(0).getInt();
+            int base = oprs.get(1).getInt();
+            int limit = oprs.get(2).getInt();
+            int offset = Calculator.signExtend(sel - base, type);
 
-            Calculator.sub(offset, limit, context);
+            Calculator.sub(offset, limit, type, context);
             context.flagV.clear();
 
             if (context.flagC.get() || context.flagZ.get()) {
-                int dispAddr = context.register[PC] + offset.uint() * 2;
-                IntData disp = context.memory.load(dispAddr, DataType.W);
-                context.register[PC] += disp.sint();
+                int dispAddr = context.register[PC] + Calculator.zeroExtend(offset, type) * 2;
+                int disp = context.memory.loadInt(dispAddr, DataType.W);
+                context.register[PC] += disp;
             } else {
-                context.register[PC] += (limit.uint() + 1) * 2;
+                context.register[PC] += (Calculator.zeroExtend(limit, type) + 1) * 2;
             }
         }
     }
 
     enum Aob implements ICode {
         AOBLSS(0xf2, L,L,BrB) {
-            @Override protected boolean check(IntData index, IntData limit) {
-                return index.sint() < limit.sint();
+            @Override protected boolean check(int index, int limit) {
+                return index < limit;
             }
         },
         AOBLEQ(0xf3, L,L,BrB) {
-            @Override protected boolean check(IntData index, IntData limit) {
-                return index.sint() <= limit.sint();
+            @Override protected boolean check(int index, int limit) {
+                return index <= limit;
             }
         };
 
@@ -1663,15 +1944,15 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData limit = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int limit = oprs.get(0).getInt();
             Operand indexOpr = oprs.get(1);
-            IntData index = indexOpr.getValue();
+            int index = indexOpr.getInt();
             Address dest = (Address)oprs.get(2);
             boolean preFlagC = context.flagC.get();
 
-            index = Calculator.add(index, new IntData(1), context);
-            indexOpr.setValue(index);
+            index = Calculator.add(index, 1, DataType.L, context);
+            indexOpr.setInt(index);
             context.flagC.set(preFlagC);
 
             if (check(index, limit)) {
@@ -1679,7 +1960,7 @@ class Opcode {
             }
         }
 
-        protected abstract boolean check(IntData index, IntData limit);
+        protected abstract boolean check(int index, int limit);
     }
 
     enum Sob implements ICode {
@@ -1714,14 +1995,14 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
+        @Override public void execute(List<Operand> oprs, Context context) {
             Operand indexOpr = oprs.get(0);
-            IntData index = indexOpr.getValue();
+            int index = indexOpr.getInt();
             Address dest = (Address)oprs.get(1);
             boolean preFlagC = context.flagC.get();
 
-            index = Calculator.sub(index, new IntData(1), context);
-            indexOpr.setValue(index);
+            index = Calculator.sub(index, 1, DataType.L, context);
+            indexOpr.setInt(index);
             context.flagC.set(preFlagC);
 
             if (check(context)) {
@@ -1757,71 +2038,33 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int srcVal = oprs.get(0).getInt();
             Operand dest = oprs.get(1);
-            IntData cvtVal = new IntData(srcVal.sint(), operands[1]);
-            dest.setValue(cvtVal);
+            int cvtVal = Calculator.signExtend(srcVal, operands[1]);
+            dest.setInt(cvtVal);
 
-            context.flagN.set( cvtVal.isNegValue() );
-            context.flagZ.set( cvtVal.isZeroValue() );
-            context.flagV.set( srcVal.isNegValue() != cvtVal.isNegValue() );
+            context.flagN.set( cvtVal < 0 );
+            context.flagZ.set( cvtVal == 0 );
+            context.flagV.set( (srcVal < 0) != (cvtVal < 0) );
             context.flagC.clear();
         }
     }
-    /*
-      enum FCvt implements ICode {
-      CVTBF (0x4c, B,F),   CVTBD (0x6c, B,D),
-      CVTBG (0x4cfd, B,G), CVTBH (0x6cfd, B,H),
-      CVTWF (0x4d, W,F),   CVTWD (0x6d, W,D),
-      CVTWG (0x4dfd, W,G), CVTWH (0x6dfd, W,H),
-      CVTLF (0x4e, L,F),   CVTLD (0x6e, L,D),
-      CVTLG (0x4efd, L,G), CVTLH (0x6efd, L,H),
-      CVTFB (0x48, F,B),   CVTDB (0x68, D,B),
-      CVTGB (0x48fd, G,B), CVTHB (0x68fd, H,B),
-      CVTFW (0x49, F,W),   CVTDW (0x69, D,W),
-      CVTGW (0x49fd, G,W), CVTHW (0x69fd, H,W),
-      CVTFL (0x4a, F,L),   CVTRFL(0x4b, F,L),
-      CVTDL (0x6a, D,L),   CVTRDL(0x6b, D,L),
-      CVTGL (0x4afd, G,L), CVTRGL(0x4bfd, G,L),
-      CVTHL (0x6afd, H,L), CVTRHL(0x6bfd, H,L),
-      CVTFD (0x56, F,D),   CVTFG (0x99fd, F,G),
-      CVTFH (0x98fd, F,H), CVTDF (0x76, D,F),
-      CVTDH (0x32fd, D,H), CVTGF (0x33fd, G,F),
-      CVTGH (0x56fd, G,H), CVTHF (0xf6fd, H,F),
-      CVTHD (0xf7fd, H,D), CVTHG (0x76fd, H,G);
-
-      private final int bin;
-      private final DataType[] operands;
-
-      private FCvt(int bin, DataType... oprs) {
-      this.bin = bin;
-      this.operands = oprs;
-      }
-
-      @Override public int bin() {
-      return bin;
-      }
-
-      @Override public DataType[] operands() {
-      return operands;
-      }
-
-      @Override public String mnemonic() {
-      return name().toLowerCase(Locale.ENGLISH);
-      }
-
-      @Override public void execute(List<Operand> oprs) {
-      }
-      }*/
 
-    enum Cvtlp implements ICode {
-        CVTLP (0xf9, L,W,B);
+    enum FCvt implements ICode {
+        CVTBF (0x4c, B,F),   CVTBD (0x6c, B,D),
+        CVTWF (0x4d, W,F),   CVTWD (0x6d, W,D),
+        CVTLF (0x4e, L,F),   CVTLD (0x6e, L,D),
+        CVTFB (0x48, F,B),   CVTDB (0x68, D,B),
+        CVTFW (0x49, F,W),   CVTDW (0x69, D,W),
+        CVTFL (0x4a, F,L),   CVTRFL(0x4b, F,L),
+        CVTDL (0x6a, D,L),   CVTRDL(0x6b, D,L),
+        CVTFD (0x56, F,D),   CVTDF (0x76, D,F);
 
         private final int bin;
         private final DataType[] operands;
 
-        private Cvtlp(int bin, DataType... oprs) {
+        private FCvt(int bin, DataType... oprs) {
             this.bin = bin;
             this.operands = oprs;
         }
@@ -1838,58 +2081,42 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srcVal = oprs.get(0).getValue();
-            long src = (long)srcVal.sint();
-            int len = oprs.get(1).getValue().uint();
-            Address dest = (Address)oprs.get(2);
-
-            byte tail = src >= 0 ? (byte)12 : (byte)13;
-            src = Math.abs(src);
-            if (len != 0) {
-                tail += src % 10 << 4;
-                src /= 10;
-                --len;
-            }
-
-            Deque<Byte> bytes = new ArrayDeque<>();
-            bytes.addFirst(tail);
-
-            while (len-- > 0) {
-                byte val = (byte)(src % 10);
-                src /= 10;
-                if (len-- > 0) {
-                    val |= (byte)(src % 10 << 4);
-                    src /= 10;
-                }
-                bytes.addFirst(val);
-            }
-
-            int destAddr = dest.getAddress();
-            while (!bytes.isEmpty()) {
-                byte val = bytes.removeFirst();
-                context.memory.store(destAddr++, new IntData(val, DataType.B));
-            }
-
-            context.register[0] = 0;
-            context.register[1] = 0;
-            context.register[2] = 0;
-            context.register[3] = dest.getAddress();
-
-            context.flagN.set( srcVal.isNegValue() );
-            context.flagZ.set( srcVal.isZeroValue() );
+        @Override public void execute(List<Operand> oprs, Context context) {
+            DataType from = operands[0];
+            DataType to = operands[1];
+            Operand dest = oprs.get(1);
+            if (from != F && from != D) {
+                long cvt = FloatUnit.fromInteger(oprs.get(0).getInt(), to);
+                FloatUnit.store(dest, to, cvt);
+                FloatUnit.setFlags(cvt, context);
+                return;
+            }
+
+            long srcVal = FloatUnit.load(oprs.get(0), from);
+            if (to == F || to == D) {
+                long cvt = FloatUnit.convert(srcVal, to);
+                FloatUnit.store(dest, to, cvt);
+                FloatUnit.setFlags(cvt, context);
+                return;
+            }
+            long val = FloatUnit.integer(srcVal, this == CVTRFL || this == CVTRDL);
+            int cvtVal = Calculator.signExtend((int)val, to);
+            dest.setInt(cvtVal);
+
+            context.flagN.set( cvtVal < 0 );
+            context.flagZ.set( cvtVal == 0 );
+            context.flagV.set( val != cvtVal );
             context.flagC.clear();
         }
     }
 
-    enum Acb implements ICode {
-        ACBB (0x9d, B,B,B,BrW), ACBW (0x3d, W,W,W,BrW),
-        ACBL (0xf1, L,L,L,BrW);
+    enum Poly implements ICode {
+        POLYF (0x55, F,W,B),   POLYD (0x75, D,W,B);
 
         private final int bin;
         private final DataType[] operands;
 
-        private Acb(int bin, DataType... oprs) {
+        private Poly(int bin, DataType... oprs) {
             this.bin = bin;
             this.operands = oprs;
         }
@@ -1906,31 +2133,396 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData limit = oprs.get(0).getValue();
-            IntData addend = oprs.get(1).getValue();
-            Operand indexOpr = oprs.get(2);
-            IntData index = indexOpr.getValue();
-            Address dest = (Address)oprs.get(3);
-            boolean preFlagC = context.flagC.get();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            DataType type = operands[0];
+            long arg = FloatUnit.load(oprs.get(0), type);
+            int degree = oprs.get(1).getInt() & 0xffff;
+            int addr = ((Address)oprs.get(2)).getAddress();
 
-            index = Calculator.add(index, addend, context);
-            indexOpr.setValue(index);
-            context.flagC.set(preFlagC);
+            assert degree <= 31 : "Reserved operand fault";
 
-            if (!addend.isNegValue()) {
-                if (index.sint() <= limit.sint()) {
-                    context.register[PC] = dest.getAddress();
-                }
+            long result = coefficient(addr, type, context);
+            for (int i = 0; i < degree; i++) {
+                addr += type.size;
+                result = FloatUnit.poly(result, arg, coefficient(addr, type, context), type);
+            }
+            addr += type.size;
+
+            if (type == F) {
+                context.register[0] = FloatUnit.toF(result);
+                context.register[1] = 0;
             } else {
-                if (index.sint() >= limit.sint()) {
-                    context.register[PC] = dest.getAddress();
-                }
+                long val = FloatUnit.toD(result);
+                context.register[0] = (int)val;
+                context.register[1] = (int)(val >>> 32);
+                context.register[4] = 0;
+                context.register[5] = 0;
+            }
+            context.register[2] = 0;
+            context.register[3] = addr;
+            FloatUnit.setFlags(result, context);
+        }
+
+        private static long coefficient(int addr, DataType type, Context context) {
+            if (type == F) {
+                return FloatUnit.fromF(context.memory.loadInt(addr, L));
             }
+            return FloatUnit.fromD(context.memory.loadLong(addr));
         }
     }
 
-    enum Movc implements ICode {
+    enum Emod implements ICode {
+        EMODF (0x54, F,B,F,L,F),   EMODD (0x74, D,B,D,L,D);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Emod(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            DataType type = operands[0];
+            long mulr = FloatUnit.load(oprs.get(0), type);
+            int mulrx = oprs.get(1).getInt() & 0xff;
+            long muld = FloatUnit.load(oprs.get(2), type);
+            Operand intOpr = oprs.get(3);
+            Operand fractOpr = oprs.get(4);
+
+            boolean neg = (mulr ^ muld) < 0;
+            long integer = 0;
+            long fract = 0;
+            boolean overflow = false;
+            if (mulr != 0 && muld != 0) {
+                // mulrx adds 8 bits to the fraction of mulr, and the
+                // product is cut to 32 bits for F and 64 for D
+                long a = FloatUnit.mantissa(mulr) << 8 | (long)mulrx << (type == F ? 32 : 0);
+                long b = FloatUnit.mantissa(muld);
+                long hi = Math.multiplyHigh(a, b) + (a < 0 ? b : 0);
+                long lo = a * b;
+                int lz = Long.numberOfLeadingZeros(hi);
+                long prod = hi << lz | lo >>> 64 - lz;
+                if (type == F) {
+                    prod &= -1L << 32;
+                }
+
+                // the product is prod * 2^s
+                int s = FloatUnit.exponent(mulr) + FloatUnit.exponent(muld) - lz - 312;
+                if (s >= 0) {
+                    integer = s < 64 ? prod << s : 0;
+                } else if (s > -64) {
+                    integer = prod >>> -s;
+                    fract = FloatUnit.round(neg, prod << 64 + s, -64, type);
+                } else {
+                    fract = FloatUnit.round(neg, prod, s, type);
+                }
+                overflow = s >= 0 || integer > (neg ? 0x80000000L : 0x7fffffffL);
+            }
+            intOpr.setInt((int)(neg ? -integer : integer));
+            FloatUnit.store(fractOpr, type, fract);
+
+            context.flagN.set( fract < 0 );
+            context.flagZ.set( fract == 0 );
+            context.flagV.set( overflow );
+            context.flagC.clear();
+        }
+    }
+
+    enum Cvtlp implements ICode {
+        CVTLP (0xf9, L,W,B);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Cvtlp(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int src = oprs.get(0).getInt();
+            int len = oprs.get(1).getInt() & 0xffff;
+            int destAddr = ((Address)oprs.get(2)).getAddress();
+
+            Packed.fromLong(src).store(context, destAddr, len);
+
+            context.register[0] = 0;
+            context.register[1] = 0;
+            context.register[2] = 0;
+            context.register[3] = destAddr;
+            context.flagC.clear();
+        }
+    }
+
+    enum Cvtpl implements ICode {
+        CVTPL (0x36, W,B,L);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Cvtpl(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int len = oprs.get(0).getInt() & 0xffff;
+            int srcAddr = ((Address)oprs.get(1)).getAddress();
+            Packed src = Packed.load(context, srcAddr, len);
+
+            context.register[0] = 0;
+            context.register[1] = srcAddr;
+            context.register[2] = 0;
+            context.register[3] = 0;
+
+            int val = (int)src.toLong();
+            oprs.get(2).setInt(val);
+            context.flagN.set( val < 0 );
+            context.flagZ.set( val == 0 );
+            context.flagV.set( !src.fitsInt() );
+            context.flagC.clear();
+        }
+    }
+
+    enum Addp implements ICode {
+        ADDP4 (0x20, W,B,W,B), ADDP6 (0x21, W,B,W,B,W,B),
+        SUBP4 (0x22, W,B,W,B), SUBP6 (0x23, W,B,W,B,W,B);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Addp(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int len1 = oprs.get(0).getInt() & 0xffff;
+            int addr1 = ((Address)oprs.get(1)).getAddress();
+            int len2 = oprs.get(2).getInt() & 0xffff;
+            int addr2 = ((Address)oprs.get(3)).getAddress();
+            int destLen = len2;
+            int destAddr = addr2;
+            if (oprs.size() == 6) {
+                destLen = oprs.get(4).getInt() & 0xffff;
+                destAddr = ((Address)oprs.get(5)).getAddress();
+            }
+
+            Packed src1 = Packed.load(context, addr1, len1);
+            Packed src2 = Packed.load(context, addr2, len2);
+            Packed result;
+            switch (this) {
+            case ADDP4: case ADDP6:
+                result = Packed.add(src2, src1);
+                break;
+            default:
+                result = Packed.sub(src2, src1);
+                break;
+            }
+            result.store(context, destAddr, destLen);
+            context.flagC.clear();
+
+            context.register[0] = 0;
+            context.register[1] = addr1;
+            context.register[2] = 0;
+            context.register[3] = addr2;
+            if (oprs.size() == 6) {
+                context.register[4] = 0;
+                context.register[5] = destAddr;
+            }
+        }
+    }
+
+    enum Cmpp implements ICode {
+        CMPP3 (0x35, W,B,B), CMPP4 (0x37, W,B,W,B);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Cmpp(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int len1 = oprs.get(0).getInt() & 0xffff;
+            int addr1 = ((Address)oprs.get(1)).getAddress();
+            int len2;
+            int addr2;
+            if (oprs.size() == 4) {
+                len2 = oprs.get(2).getInt() & 0xffff;
+                addr2 = ((Address)oprs.get(3)).getAddress();
+            } else {
+                len2 = len1;
+                addr2 = ((Address)oprs.get(2)).getAddress();
+            }
+
+            int c = Packed.compare(Packed.load(context, addr1, len1),
+                                   Packed.load(context, addr2, len2));
+            context.flagN.set( c < 0 );
+            context.flagZ.set( c == 0 );
+            context.flagV.clear();
+            context.flagC.clear();
+
+            context.register[0] = 0;
+            context.register[1] = addr1;
+            context.register[2] = 0;
+            context.register[3] = addr2;
+        }
+    }
+
+    enum Ashp implements ICode {
+        ASHP (0xf8, B,W,B,B,W,B);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Ashp(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int count = (byte)oprs.get(0).getInt();
+            int srcLen = oprs.get(1).getInt() & 0xffff;
+            int srcAddr = ((Address)oprs.get(2)).getAddress();
+            int round = oprs.get(3).getInt();
+            int destLen = oprs.get(4).getInt() & 0xffff;
+            int destAddr = ((Address)oprs.get(5)).getAddress();
+
+            Packed.load(context, srcAddr, srcLen).shift(count, round)
+                .store(context, destAddr, destLen);
+            context.flagC.clear();
+
+            context.register[0] = 0;
+            context.register[1] = srcAddr;
+            context.register[2] = 0;
+            context.register[3] = destAddr;
+        }
+    }
+
+    enum Acb implements ICode {
+        ACBB (0x9d, B,B,B,BrW), ACBW (0x3d, W,W,W,BrW),
+        ACBL (0xf1, L,L,L,BrW);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Acb(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int limit = oprs.get(0).getInt();
+            int addend = oprs.get(1).getInt();
+            Operand indexOpr = oprs.get(2);
+            int index = indexOpr.getInt();
+            Address dest = (Address)oprs.get(3);
+            boolean preFlagC = context.flagC.get();
+
+            index = Calculator.add(index, addend, operands[0], context);
+            indexOpr.setInt(index);
+            context.flagC.set(preFlagC);
+
+            if (addend >= 0) {
+                if (index <= limit) {
+                    context.register[PC] = dest.getAddress();
+                }
+            } else {
+                if (index >= limit) {
+                    context.register[PC] = dest.getAddress();
+                }
+            }
+        }
+    }
+
+    enum Movc implements ICode {
         MOVC3 (0x28, W,B,B), MOVC5 (0x2c, W,B,B,W,B);
 
         private final int bin;
@@ -1953,40 +2545,36 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData srclen = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int srclen = oprs.get(0).getInt();
             int srcAddr = ((Address)oprs.get(1)).getAddress();
-            IntData fillVal;
-            IntData destlen;
+            int fillVal;
+            int destlen;
             int destAddr;
             if (oprs.size() == 5) {
-                fillVal = oprs.get(2).getValue();
-                destlen = oprs.get(3).getValue();
+                fillVal = oprs.get(2).getInt();
+                destlen = oprs.get(3).getInt();
                 destAddr = ((Address)oprs.get(4)).getAddress();
             } else {
-                fillVal = null;
+                fillVal = 0;
                 destlen = srclen;
                 destAddr = ((Address)oprs.get(2)).getAddress();
             }
 
-            int slen = srclen.uint();
-            int dlen = destlen.uint();
-            for (; slen > 0 && dlen >0; slen--, dlen--) {
-                IntData byteVal = context.memory.load(srcAddr++, DataType.B);
-                context.memory.store(destAddr++, byteVal);
-            }
-            for (; dlen > 0; dlen--) {
-                context.memory.store(destAddr++, fillVal);
-            }
+            int slen = srclen & 0xffff;
+            int dlen = destlen & 0xffff;
+            int n = Math.min(slen, dlen);
+            context.memory.moveBytes(srcAddr, destAddr, n);
+            context.memory.fillBytes(destAddr + n, dlen - n, (byte)fillVal);
 
-            context.register[0] = slen;
-            context.register[1] = srcAddr;
+            context.register[0] = slen - n;
+            context.register[1] = srcAddr + n;
             context.register[2] = 0;
-            context.register[3] = destAddr;
+            context.register[3] = destAddr + dlen;
             context.register[4] = 0;
             context.register[5] = 0;
             // Set flags
-            Calculator.sub(srclen, destlen, context);
+            Calculator.sub(srclen, destlen, DataType.W, context);
             context.flagV.clear();
         }
     }
@@ -2014,47 +2602,45 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData str1len = oprs.get(0).getValue();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int str1len = oprs.get(0).getInt();
             int str1Addr = ((Address)oprs.get(1)).getAddress();
-            IntData fillVal;
-            IntData str2len;
+            int fillVal;
+            int str2len;
             int str2Addr;
             if (oprs.size() == 5) {
-                fillVal = oprs.get(2).getValue();
-                str2len = oprs.get(3).getValue();
+                fillVal = oprs.get(2).getInt();
+                str2len = oprs.get(3).getInt();
                 str2Addr = ((Address)oprs.get(4)).getAddress();
             } else {
-                fillVal = null;
+                fillVal = 0;
                 str2len = str1len;
                 str2Addr = ((Address)oprs.get(2)).getAddress();
             }
 
-            int s1len = str1len.uint();
-            int s2len = str2len.uint();
-            COMPC: {
-                for (; s1len > 0 && s2len >0; s1len--, s2len--, str1Addr++, str2Addr++) {
-                    IntData str1Val = context.memory.load(str1Addr, DataType.B);
-                    IntData str2Val = context.memory.load(str2Addr, DataType.B);
-                    Calculator.sub(str1Val, str2Val, context);
-                    if (!context.flagZ.get()) {
-                        break COMPC;
-                    }
-                }
-                for (; s1len > 0; s1len--, str1Addr++) {
-                    IntData str1Val = context.memory.load(str1Addr, DataType.B);
-                    Calculator.sub(str1Val, fillVal, context);
-                    if (!context.flagZ.get()) {
-                        break COMPC;
-                    }
-                }
-                for (; s2len > 0; s2len--, str2Addr++) {
-                    IntData str2Val = context.memory.load(str2Addr, DataType.B);
-                    Calculator.sub(fillVal, str2Val, context);
-                    if (!context.flagZ.get()) {
-                        break COMPC;
-                    }
-                }
+            int s1len = str1len & 0xffff;
+            int s2len = str2len & 0xffff;
+            int n = context.memory.mismatch(str1Addr, str2Addr, Math.min(s1len, s2len));
+            s1len -= n;
+            s2len -= n;
+            str1Addr += n;
+            str2Addr += n;
+            if (s1len > 0 && s2len > 0) {
+                Calculator.sub(context.memory.loadInt(str1Addr, DataType.B),
+                               context.memory.loadInt(str2Addr, DataType.B), DataType.B, context);
+            } else if (s1len > 0) {
+                // the rest of the longer string is compared with the fill
+                n = context.memory.scanBytes(str1Addr, s1len, fillVal, false);
+                s1len -= n;
+                str1Addr += n;
+                Calculator.sub(s1len > 0 ? context.memory.loadInt(str1Addr, DataType.B) : fillVal,
+                               fillVal, DataType.B, context);
+            } else {
+                n = context.memory.scanBytes(str2Addr, s2len, fillVal, false);
+                s2len -= n;
+                str2Addr += n;
+                Calculator.sub(fillVal, s2len > 0 ? context.memory.loadInt(str2Addr, DataType.B) : fillVal,
+                               DataType.B, context);
             }
 
             context.register[0] = s1len;
@@ -2066,16 +2652,7 @@ class Opcode {
     }
 
     enum Locc implements ICode {
-        LOCC (0x3a, B,W,B) {
-            @Override protected boolean isDetected(IntData actual, IntData target) {
-                return actual.uint() == target.uint();
-            }
-        },
-        SKPC (0x3b, B,W,B) {
-            @Override protected boolean isDetected(IntData actual, IntData target) {
-                return actual.uint() != target.uint();
-            }
-        };
+        LOCC (0x3a, B,W,B), SKPC (0x3b, B,W,B);
 
         private final int bin;
         private final DataType[] operands;
@@ -2097,35 +2674,70 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            IntData target = oprs.get(0).getValue();
-            int len = oprs.get(1).getValue().uint();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int target = oprs.get(0).getInt();
+            int len = oprs.get(1).getInt() & 0xffff;
             int addr = ((Address)oprs.get(2)).getAddress();
 
-            for (; len > 0; len--, addr++) {
-                IntData byteVal = context.memory.load(addr, DataType.B);
-                if (isDetected(target, byteVal)) {
-                    break;
-                }
-            }
-            context.register[0] = len;
-            context.register[1] = addr;
+            int n = context.memory.scanBytes(addr, len, target, this == LOCC);
+            context.register[0] = len - n;
+            context.register[1] = addr + n;
             context.flagN.clear();
             context.flagZ.set( context.register[0] == 0 );
             context.flagV.clear();
             context.flagC.clear();
         }
+    }
+
+    enum Scanc implements ICode {
+        SCANC (0x2a, W,B,B,B), SPANC (0x2b, W,B,B,B);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Scanc(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
 
-        protected abstract boolean isDetected(IntData actual, IntData target);
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int len = oprs.get(0).getInt() & 0xffff;
+            int addr = ((Address)oprs.get(1)).getAddress();
+            int tblAddr = ((Address)oprs.get(2)).getAddress();
+            int mask = oprs.get(3).getInt() & 0xff;
+
+            byte[] table = context.memory.loadBytes(tblAddr, 256);
+            int n = context.memory.scanTable(addr, len, table, mask, this == SCANC);
+            context.register[0] = len - n;
+            context.register[1] = addr + n;
+            context.register[2] = 0;
+            context.register[3] = tblAddr;
+            context.flagN.clear();
+            context.flagZ.set( context.register[0] == 0 );
+            context.flagV.clear();
+            context.flagC.clear();
+        }
     }
 
-    enum Movp implements ICode {
-        MOVP (0x34, W,B,B);
+    enum Movtc implements ICode {
+        MOVTC (0x2e, W,B,B,B,W,B), MOVTUC (0x2f, W,B,B,B,W,B);
 
         private final int bin;
         private final DataType[] operands;
 
-        private Movp(int bin, DataType... oprs) {
+        private Movtc(int bin, DataType... oprs) {
             this.bin = bin;
             this.operands = oprs;
         }
@@ -2142,51 +2754,148 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        @Override public void execute(List<Operand> oprs) {
-            int len = oprs.get(0).getValue().uint();
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int srclen = oprs.get(0).getInt();
             int srcAddr = ((Address)oprs.get(1)).getAddress();
-            int destAddr = ((Address)oprs.get(2)).getAddress();
-            int mostSigSrcAddr = srcAddr;
-            int mostSigDestAddr = destAddr;
-
-            int byteslen = len / 2 + 1;
-            for (; byteslen > 0; byteslen--) {
-                IntData byteVal = context.memory.load(srcAddr++, DataType.B);
-                context.memory.store(destAddr++, byteVal);
+            int fillOrEsc = oprs.get(2).getInt() & 0xff;
+            int tblAddr = ((Address)oprs.get(3)).getAddress();
+            int destlen = oprs.get(4).getInt();
+            int destAddr = ((Address)oprs.get(5)).getAddress();
+
+            int slen = srclen & 0xffff;
+            int dlen = destlen & 0xffff;
+            int n = Math.min(slen, dlen);
+            byte[] table = context.memory.loadBytes(tblAddr, 256);
+            boolean escaped = false;
+            if (this == MOVTC) {
+                context.memory.translate(srcAddr, destAddr, n, table, -1);
+                context.memory.fillBytes(destAddr + n, dlen - n, (byte)fillOrEsc);
+                context.register[4] = 0;
+                context.register[5] = destAddr + dlen;
+            } else {
+                int done = context.memory.translate(srcAddr, destAddr, n, table, fillOrEsc);
+                escaped = done < n;
+                n = done;
+                context.register[4] = dlen - n;
+                context.register[5] = destAddr + n;
             }
 
-            context.register[0] = 0;
-            context.register[1] = mostSigSrcAddr;
+            context.register[0] = slen - n;
+            context.register[1] = srcAddr + n;
             context.register[2] = 0;
-            context.register[3] = mostSigDestAddr;
-            context.flagN.set( isNegativePacked(destAddr, len) );
-            context.flagZ.set( isZeroPacked(destAddr, len) );
-            context.flagV.clear();
+            context.register[3] = tblAddr;
+            // Set flags
+            Calculator.sub(srclen, destlen, DataType.W, context);
+            context.flagV.set(escaped);
         }
+    }
 
-        private boolean isNegativePacked(int addr, int len) {
-            int signAddr = addr + len / 2;
-            byte sign = (byte)(context.memory.load(signAddr, DataType.B).uint() & 0xf);
-            switch (sign) {
-            case 0xa: case 0xc: case 0xe: case 0xf:
-                return false;
-            case 0xb: case 0xd:
-                return true;
-            default:
-                assert false : "Invalid Packed decimal string";
-                return false;
+    enum Matchc implements ICode {
+        MATCHC (0x39, W,B,W,B);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Matchc(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int objlen = oprs.get(0).getInt() & 0xffff;
+            int objAddr = ((Address)oprs.get(1)).getAddress();
+            int srclen = oprs.get(2).getInt() & 0xffff;
+            int srcAddr = ((Address)oprs.get(3)).getAddress();
+
+            int at = indexOf(context.memory.loadBytes(srcAddr, srclen),
+                             context.memory.loadBytes(objAddr, objlen));
+            if (at >= 0) {
+                context.register[0] = 0;
+                context.register[1] = objAddr + objlen;
+                context.register[2] = srclen - at - objlen;
+                context.register[3] = srcAddr + at + objlen;
+            } else {
+                context.register[0] = objlen;
+                context.register[1] = objAddr;
+                context.register[2] = 0;
+                context.register[3] = srcAddr + srclen;
             }
+            context.flagN.clear();
+            context.flagZ.set( context.register[0] == 0 );
+            context.flagV.clear();
+            context.flagC.clear();
         }
 
-        private boolean isZeroPacked(int addr, int len) {
-            int numslen = len / 2;
-            for (; numslen > 0; numslen--) {
-                int val = context.memory.load(addr++, DataType.B).uint();
-                if (val != 0) {
-                    return false;
+        /*
+         * Boyer-Moore-Horspool: on a mismatch the window moves by the
+         * distance from the last occurrence of its last byte in pat.
+         */
+        static int indexOf(byte[] text, byte[] pat) {
+            int m = pat.length;
+            if (m == 0) {
+                return 0;
+            }
+            int[] shift = new int[256];
+            Arrays.fill(shift, m);
+            for (int i = 0; i < m - 1; i++) {
+                shift[pat[i] & 0xff] = m - 1 - i;
+            }
+            for (int at = 0; at + m <= text.length; at += shift[text[at + m - 1] & 0xff]) {
+                if (text[at + m - 1] == pat[m - 1] &&
+                    Arrays.equals(text, at, at + m - 1, pat, 0, m - 1)) {
+                    return at;
                 }
             }
-            return (addr & 0xf0) == 0;
+            return -1;
+        }
+    }
+
+    enum Movp implements ICode {
+        MOVP (0x34, W,B,B);
+
+        private final int bin;
+        private final DataType[] operands;
+
+        private Movp(int bin, DataType... oprs) {
+            this.bin = bin;
+            this.operands = oprs;
+        }
+
+        @Override public int bin() {
+            return bin;
+        }
+
+        @Override public DataType[] operands() {
+            return operands;
+        }
+
+        @Override public String mnemonic() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override public void execute(List<Operand> oprs, Context context) {
+            int len = oprs.get(0).getInt() & 0xffff;
+            int srcAddr = ((Address)oprs.get(1)).getAddress();
+            int destAddr = ((Address)oprs.get(2)).getAddress();
+
+            Packed.load(context, srcAddr, len).store(context, destAddr, len);
+
+            context.register[0] = 0;
+            context.register[1] = srcAddr;
+            context.register[2] = 0;
+            context.register[3] = destAddr;
         }
     }
 
@@ -2213,51 +2922,73 @@ class Opcode {
             return name().toLowerCase(Locale.ENGLISH);
         }
 
-        private final Queue<Byte> srcDigits = new ArrayDeque<>();
-        private final List<Byte> destChars = new ArrayList<>();
-        private int mostSignificantDigitAddr;
+        @Override public void execute(List<Operand> oprs, Context context) {
+            new Editor(context).execute(oprs);
+        }
+    }
+
+    /* Working state of one EDITPC, kept apart from the shared enum constant. */
+    static class Editor {
+        private final Context context;
+        private byte[] src;
+        private int nibble;     /* the next source digit, counted from the top nibble */
+        private int nibbleEnd;
+        private int zeros;      /* leading zeros added by EO$ADJUST_INPUT */
+        private byte[] dest = new byte[32];
+        private int destLen;
 
-        @Override public void execute(List<Operand> oprs) {
-            int srcLen = oprs.get(0).getValue().uint();
+        Editor(Context context) {
+            this.context = context;
+        }
+
+        void execute(List<Operand> oprs) {
+            int srcLen = oprs.get(0).getInt() & 0xffff;
             int srcAddr = ((Address)oprs.get(1)).getAddress();
             int ptnAddr = ((Address)oprs.get(2)).getAddress();
 
             assert srcLen <= 31 : "Reserved operand fault";
 
-            context.flagN.set( isNegativePacked(srcAddr, srcLen) );
+            initDigits(srcAddr, srcLen);
+            context.flagN.set( isNegativePacked() );
             setSignChar((byte)(context.flagN.get() ? '-' : ' '));
             setFillChar((byte)' ');
-            initDigits(srcAddr, srcLen);
+            context.flagZ.set();
             context.flagV.clear();
             context.flagC.clear();
 
             int endOpAddr = execOps(ptnAddr);
 
-            // after execution
-            byte[] charBytes = new byte[destChars.size()];
-            for (int i = 0; i < destChars.size(); ++i) {
-                charBytes[i] = destChars.get(i);
-            }
-
             int destAddr = ((Address)oprs.get(3)).getAddress();
-            context.memory.storeBytes(destAddr, charBytes, charBytes.length);
+            context.memory.storeBytes(destAddr, dest, destLen);
 
             context.register[0] = srcLen;
             context.register[1] = srcAddr;
             context.register[2] = 0;
             context.register[3] = endOpAddr;
             context.register[4] = 0;
-            context.register[5] = destAddr + charBytes.length;
+            context.register[5] = destAddr + destLen;
         }
 
         private int execOps(int ptnAddr) {
             do {
-                int code = context.memory.load(ptnAddr, DataType.B).uint();
+                int code = context.memory.loadInt(ptnAddr, DataType.B) & 0xff;
                 if (code == 0x0) {
                     doEnd(context);
                     return ptnAddr;
                 } else if (code == 0x1) {
                     doEndFloat(context);
+                } else if (code == 0x2) {
+                    context.flagC.clear();
+                } else if (code == 0x3) {
+                    setSignificance(context);
+                } else if (code == 0x4) {
+                    put(getSignChar(context));
+                } else if (0x40 <= code && code <= 0x47) {
+                    doCharOp(code, context.memory.loadInt(++ptnAddr, DataType.B));
+                } else if (0x81 <= code && code <= 0x8f) {
+                    for (int i = code & 0xf; i > 0; i--) {
+                        put(getFillChar(context));
+                    }
                 } else if (0x91 <= code && code <= 0x9f) {
                     doMove(code & 0xf);
                 } else if (0xa1 <= code && code <= 0xaf) {
@@ -2270,52 +3001,108 @@ class Opcode {
         }
 
         private void doEnd(Context context) {
-            assert srcDigits.size() == 0 : "Reserved operand abort";
-            if (context.flagN.get()) {
-                context.flagZ.clear();
+            assert remaining() == 0 : "Reserved operand abort";
+            // -0 is not negative
+            if (context.flagZ.get()) {
+                context.flagN.clear();
+            }
+        }
+
+        /* the operators followed by a character or a length */
+        private void doCharOp(int code, int arg) {
+            switch (code) {
+            case 0x40:  // EO$LOAD_FILL
+                setFillChar((byte)arg);
+                break;
+            case 0x41:  // EO$LOAD_SIGN
+                setSignChar((byte)arg);
+                break;
+            case 0x42:  // EO$LOAD_PLUS
+                if (!context.flagN.get()) {
+                    setSignChar((byte)arg);
+                }
+                break;
+            case 0x43:  // EO$LOAD_MINUS
+                if (context.flagN.get()) {
+                    setSignChar((byte)arg);
+                }
+                break;
+            case 0x44:  // EO$INSERT
+                put(hasSignificanceSet(context) ? (byte)arg : getFillChar(context));
+                break;
+            case 0x45:  // EO$BLANK_ZERO
+                assert 0 < (arg & 0xff) && (arg & 0xff) <= destLen : "Reserved operand abort";
+                if (context.flagZ.get()) {
+                    Arrays.fill(dest, destLen - (arg & 0xff), destLen, getFillChar(context));
+                }
+                break;
+            case 0x46:  // EO$REPLACE_SIGN
+                assert 0 < (arg & 0xff) && (arg & 0xff) <= destLen : "Reserved operand abort";
+                if (context.flagZ.get()) {
+                    dest[destLen - (arg & 0xff)] = getFillChar(context);
+                }
+                break;
+            default:    // EO$ADJUST_INPUT
+                doAdjustInput(arg & 0xff);
+                break;
+            }
+        }
+
+        /* takes the source to len digits, dropping or adding leading ones */
+        private void doAdjustInput(int len) {
+            assert 0 < len && len <= 31 : "Reserved operand abort";
+            if (remaining() < len) {
+                zeros += len - remaining();
+                return;
+            }
+            while (remaining() > len) {
+                if (nextDigit() != 0) {
+                    context.flagV.set();
+                    clearZero(context);
+                }
             }
         }
 
         private void doEndFloat(Context context) {
             if (!hasSignificanceSet(context)) {
-                destChars.add(getSignChar(context));
+                put(getSignChar(context));
                 setSignificance(context);
             }
         }
 
         private void doMove(int count) {
-            assert count <= srcDigits.size() : "Reserved operand abort";
+            assert count <= remaining() : "Reserved operand abort";
 
             for (; count > 0; count--) {
-                byte digit = srcDigits.remove();
+                int digit = nextDigit();
                 if (digit != 0) {
                     setSignificance(context);
                     clearZero(context);
                 }
                 if (!hasSignificanceSet(context)) {
-                    destChars.add(getFillChar(context));
+                    put(getFillChar(context));
                 } else {
-                    destChars.add(asciiNumCode(digit));
+                    put(asciiNumCode(digit));
                 }
             }
         }
 
         private void doFloat(int count) {
-            assert count <= srcDigits.size() : "Reserved operand abort";
+            assert count <= remaining() : "Reserved operand abort";
 
             for (; count > 0; count--) {
-                byte digit = srcDigits.remove();
+                int digit = nextDigit();
                 if (digit != 0) {
                     if (!hasSignificanceSet(context)) {
-                        destChars.add(getSignChar(context));
+                        put(getSignChar(context));
                     }
                     setSignificance(context);
                     clearZero(context);
                 }
                 if (!hasSignificanceSet(context)) {
-                    destChars.add(getFillChar(context));
+                    put(getFillChar(context));
                 } else {
-                    destChars.add(asciiNumCode(digit));
+                    put(asciiNumCode(digit));
                 }
             }
         }
@@ -2350,13 +3137,12 @@ class Opcode {
             context.flagZ.clear();
         }
 
-        private byte asciiNumCode(byte val) {
+        private byte asciiNumCode(int val) {
             return (byte)(val + '0');
         }
 
-        private boolean isNegativePacked(int addr, int len) {
-            int signAddr = addr + len / 2;
-            byte sign = (byte)(context.memory.load(signAddr, DataType.B).uint() & 0xf);
+        private boolean isNegativePacked() {
+            byte sign = (byte)(src[src.length - 1] & 0xf);
             switch (sign) {
             case 0xa: case 0xc: case 0xe: case 0xf:
                 return false;
@@ -2368,26 +3154,33 @@ class Opcode {
             }
         }
 
+        /* the whole string in one read; an even length skips the top nibble */
         private void initDigits(int addr, int len) {
-            srcDigits.clear();
-            destChars.clear();
+            src = context.memory.loadBytes(addr, len / 2 + 1);
+            nibble = 1 - len % 2;
+            nibbleEnd = nibble + len;
+            zeros = 0;
+            destLen = 0;
+        }
 
-            if (len % 2 == 0) {
-                byte firstDigit = (byte)(context.memory.load(addr++, DataType.B).uint() & 0xf);
-                srcDigits.add(firstDigit);
-                --len;
+        private int remaining() {
+            return zeros + nibbleEnd - nibble;
+        }
+
+        private int nextDigit() {
+            if (zeros > 0) {
+                zeros--;
+                return 0;
             }
+            int b = src[nibble >> 1];
+            return (nibble++ & 1) == 0 ? b >> 4 & 0xf : b & 0xf;
+        }
 
-            while (len > 0) {
-                int twoDigits = context.memory.load(addr++, DataType.B).uint();
-                srcDigits.add((byte)(twoDigits >>> 4));
-                --len;
-                if (len <= 0) {
-                    break;
-                }
-                srcDigits.add((byte)(twoDigits & 0xf));
-                --len;
+        private void put(byte c) {
+            if (destLen == dest.length) {
+                dest = Arrays.copyOf(dest, destLen * 2);
             }
+            dest[destLen++] = c;
         }
     }
 }
@@ -2420,60 +3213,86 @@ class Nullcode extends Opcode {
 }
 
 class Calculator {
-    public static IntData add(IntData arg1, IntData arg2, boolean addCarry, Context context) {
-        byte[] sumBytes = new byte[arg1.size()];
-        byte[] arg1Bytes = arg1.bytes();
-        byte[] arg2Bytes = arg2.bytes();
-        int carry = addCarry ? 1 : 0;
-        for (int i = 0; i < arg1.size(); i++) {
-            int tmp = (arg1Bytes[i] & 0xff) + (arg2Bytes[i] & 0xff) + carry;
-            sumBytes[i] = (byte)tmp;
-            carry = tmp >> 8;
-        }
-        IntData sum = new IntData(sumBytes, arg1.dataType());
-        context.flagN.set( sum.isNegValue() );
-        context.flagZ.set( sum.isZeroValue() );
-        context.flagV.set( arg1.isNegValue() == arg2.isNegValue() &&
-                           arg1.isNegValue() != sum.isNegValue() );
-        context.flagC.set( carry == 1 );
+    /*
+     * B, W and L values are passed around sign-extended in an int and
+     * results are truncated to the data type. add and sub leave their
+     * condition codes to be evaluated lazily by the context.
+     */
+    public static int add(int arg1, int arg2, DataType type, Context context) {
+        int sum = signExtend(arg1 + arg2, type);
+        context.setArithFlags(Context.CC_ADD, sum, arg1, arg2, type);
         return sum;
     }
 
-    public static IntData add(IntData arg1, IntData arg2, Context context) {
-        return add(arg1, arg2, false, context);
-    }
-
-    public static IntData sub(IntData arg1, IntData arg2, Context context) {
-        IntData diff = add(arg1, IntData.bitInvert( arg2 ), true, context);
-        context.flagC.set( !context.flagC.get() );
+    public static int sub(int arg1, int arg2, DataType type, Context context) {
+        int diff = signExtend(arg1 - arg2, type);
+        context.setArithFlags(Context.CC_SUB, diff, arg1, arg2, type);
         return diff;
     }
 
-    public static IntData mul(IntData arg1, IntData arg2, Context context) {
-        long product64b = (long)arg1.sint() * arg2.sint();
-        IntData prod = new IntData((int)product64b, arg1.dataType());
+    public static int mul(int arg1, int arg2, DataType type, Context context) {
+        long product64b = (long)arg1 * arg2;
+        int prod = signExtend((int)product64b, type);
 
-        context.flagN.set( prod.isNegValue() );
-        context.flagZ.set( prod.isZeroValue() );
-        int highHalf = (int)(product64b >>> 32);
-        context.flagV.set( (prod.isNegValue() && highHalf == 0xffffffff) ||
-                           (!prod.isNegValue() && highHalf == 0) );
+        context.flagN.set( prod < 0 );
+        context.flagZ.set( prod == 0 );
+        context.flagV.set( product64b != prod );
         context.flagC.clear();
         return prod;
     }
 
-    public static IntData div(IntData dividend, IntData divisor, Context context) {
-        if (divisor.uint() == 0 ||
-            (dividend.isLargestNegativeInteger() && divisor.sint() == -1)) {
-            context.flagV.set();
-            return null;
-        } else {
-            IntData quo = new IntData(dividend.sint() / divisor.sint(), divisor.dataType());
-            context.flagN.set( quo.isNegValue() );
-            context.flagZ.set( quo.isZeroValue() );
-            context.flagV.clear();
-            context.flagC.clear();
-            return quo;
+    public static boolean isDivisible(int dividend, int divisor, DataType type) {
+        return divisor != 0 &&
+               !(dividend == signExtend(1 << ((type.size << 3) - 1), type) && divisor == -1);
+    }
+
+    public static int div(int dividend, int divisor, DataType type, Context context) {
+        int quo = signExtend(dividend / divisor, type);
+        context.flagN.set( quo < 0 );
+        context.flagZ.set( quo == 0 );
+        context.flagV.clear();
+        context.flagC.clear();
+        return quo;
+    }
+
+    public static int signExtend(int val, DataType type) {
+        switch (type.size) {
+        case 1:
+            return (byte)val;
+        case 2:
+            return (short)val;
+        default:
+            return val;
+        }
+    }
+
+    public static int zeroExtend(int val, DataType type) {
+        switch (type.size) {
+        case 1:
+            return val & 0xff;
+        case 2:
+            return val & 0xffff;
+        default:
+            return val;
+        }
+    }
+
+    // Floating values have the sign bit in bit 15 of the first word.
+    public static boolean isNegative(int val, DataType type) {
+        switch (type) {
+        case F:
+            return (val & 0x8000) != 0;
+        default:
+            return val < 0;
+        }
+    }
+
+    public static boolean isNegative(long val, DataType type) {
+        switch (type) {
+        case D: case G:
+            return (val & 0x8000) != 0;
+        default:
+            return val < 0;
         }
     }
 }
@@ -2481,39 +3300,42 @@ class Calculator {
 /* Not Implemented
     HALT (0x0), REI   (0x2),
     BPT (0x3), RET   (0x4),
-    RSB (0x5), LDPCTX (0x6),
+    LDPCTX (0x6),
     SVPCTX (0x7), CVTPS (0x8, W,B,W,B),
     CVTSP (0x9,W,B,W,B), INDEX (0xa, L,L,L,L,L,L),
     CRC (0xb, B,L,W,B), PROBER (0xc, B,W,B),
     PROBEW (0xd, B,W,B), INSQUE (0xe, B,B),
-    REMQUE (0xf, B,W), BSBB (0x10, BrB),
-    JSB (0x16, B),
-    ADDP4 (0x20, W,B,W,B), ADDP6 (0x21, W,B,W,B,W,B),
-    SUBP4 (0x22, W,B,W,B), SUBP6 (0x23, W,B,W,B,W,B),
+    REMQUE (0xf, B,W),
     CVTPT (0x24, W,B,B,W,B), MULP (0x25, W,B,W,B,W,B),
     CVTTP (0x26, W,B,B,W,B), DIVP (0x27, W,B,W,B,W,B),
-    SCANC (0x2a, W,B,B,B), SPANC (0x2b, W,B,B,B),
-    MOVTC (0x2e, W,B,B,B,W,B), MOVTUC (0x2f, W,B,B,B,W,B),
-    BSBW  (0x30, BrW), CMPP3 (0x35, W,B,B),
-    CVTPL (0x36, W,B,L), CMPP4 (0x37, W,B,W,B),
-    MATCHC(0x39, W,B,W,B),
-    MULF2 (0x44, F,F), MULG2 (0x44fd, G,G),
-    MULF3 (0x45, F,F,F), MULG3 (0x45fd, G,G,G),
-    DIVF2 (0x46, F,F), DIVG2 (0x46fd, G,G),
-    DIVF3 (0x47, F,F,F), DIVG3 (0x47fd, G,G,G),
+    ADDG2 (0x40fd, G,G), ADDG3 (0x41fd, G,G,G),
+    SUBG2 (0x42fd, G,G), SUBG3 (0x43fd, G,G,G),
+    MULG2 (0x44fd, G,G), MULG3 (0x45fd, G,G,G),
+    DIVG2 (0x46fd, G,G), DIVG3 (0x47fd, G,G,G),
+    CVTGB (0x48fd, G,B), CVTGW (0x49fd, G,W),
+    CVTGL (0x4afd, G,L), CVTRGL (0x4bfd, G,L),
+    CVTBG (0x4cfd, B,G), CVTWG (0x4dfd, W,G),
+    CVTLG (0x4efd, L,G), CMPG (0x51fd, G,G),
     ACBF (0x4f, F,F,F,BrW), ACBG (0x4ffd, G,G,G,BrW),
-    EMODF (0x54, F,B,F,L,F), EMODG (0x54fd, G,W,G,L,G),
-    POLYF (0x55, F,W,B), POLYG (0x55fd, G,W,B),
+    EMODG (0x54fd, G,W,G,L,G), POLYG (0x55fd, G,W,B),
+    CVTGH (0x56fd, G,H), CVTFH (0x98fd, F,H),
+    CVTFG (0x99fd, F,G), CVTDH (0x32fd, D,H),
+    CVTGF (0x33fd, G,F),
     ADAWI (0x58, W,W),
     INSQHI (0x5c, B,Q), INSQTI (0x5d, B,Q),
     REMQHI (0x5e, Q,L), REMQTI (0x5f, Q,L),
-    MULD2 (0x64, D,D), MULH2 (0x64fd, H,H),
-    MULD3 (0x65, D,D,D), MULH3 (0x65fd, H,H,H),
-    DIVD2 (0x66, D,D), DIVH2 (0x66fd, H,H),
-    DIVD3 (0x67, D,D,D), DIVH3 (0x67fd, H,H,H),
+    ADDH2 (0x60fd, H,H), ADDH3 (0x61fd, H,H,H),
+    SUBH2 (0x62fd, H,H), SUBH3 (0x63fd, H,H,H),
+    MULH2 (0x64fd, H,H), MULH3 (0x65fd, H,H,H),
+    DIVH2 (0x66fd, H,H), DIVH3 (0x67fd, H,H,H),
+    CVTHB (0x68fd, H,B), CVTHW (0x69fd, H,W),
+    CVTHL (0x6afd, H,L), CVTRHL (0x6bfd, H,L),
+    CVTBH (0x6cfd, B,H), CVTWH (0x6dfd, W,H),
+    CVTLH (0x6efd, L,H), CMPH (0x71fd, H,H),
     ACBD (0x6f, D,D,D,BrW), ACBH (0x6ffd, H,H,H,BrW),
-    EMODD (0x74, D,B,D,L,D), EMODH (0x74fd, H,W,H,L,H),
-    POLYD (0x75, D,W,B), POLYH (0x75fd, H,W,B),
+    EMODH (0x74fd, H,W,H,L,H), POLYH (0x75fd, H,W,B),
+    CVTHG (0x76fd, H,G), CVTHF (0xf6fd, H,F),
+    CVTHD (0xf7fd, H,D),
     EMUL (0x7a, L,L,L,Q), EDIV (0x7b, L,Q,L,L),
     ROTL  (0x9c, B,L,L),
     BISPSW (0xb8, W), BICPSW (0xb9, W),
@@ -2524,7 +3346,6 @@ class Calculator {
     MTPR (0xda, L,L), MFPR (0xdb, L,L),
     MOVPSL (0xdc, L),
     FFS (0xea, L,B,B,L), FFC (0xeb, L,B,B,L),
-    CMPV (0xec, L,B,B,L), CMPZV (0xed, L,B,B,L),
-    ASHP (0xf8, B,W,B,B,W,B), XFC (0xfc),
+    XFC (0xfc),
     BUGL (0xfdff, L), BUGW (0xfeff, W);
 */
@@ -14,11 +14,36 @@ abstract class Operand {
     abstract public IntData getValue();
     abstract public void setValue(IntData val);
 
+    // B, W, L and F sized values, sign-extended
+    abstract public int getInt();
+    abstract public void setInt(int val);
+
+    // Q, D and G sized values
+    abstract public long getLong();
+    abstract public void setLong(long val);
+
     protected Operand(Context context, DataType dataType) {
         this.context = context;
         this.dataType = dataType;
     }
 
+    /*
+     * Evaluate the decoded specifier against the current registers.
+     * Called before every execution of the instruction, so side effects
+     * such as autoincrement happen once per step even for cached operands.
+     * PC relative specifiers are fixed at decode time because the text is
+     * read-only.
+     */
+    public void resolve() {}
+
+    /*
+     * Whether resolve() has nothing to do, i.e. the operand was fully
+     * evaluated at decode time.
+     */
+    public boolean isConstant() {
+        return true;
+    }
+
     public static Operand fetch(Context context, DataType type) {
         if (type != DataType.BrB && type != DataType.BrW) {
             return fetchGeneralAddress(context, type);
@@ -102,6 +127,26 @@ abstract class Address extends Operand {
         context.memory.store(addr, val);
     }
 
+    @Override
+    public int getInt() {
+        return context.memory.loadInt(addr, dataType);
+    }
+
+    @Override
+    public void setInt(int val) {
+        context.memory.storeInt(addr, val, dataType);
+    }
+
+    @Override
+    public long getLong() {
+        return context.memory.loadLong(addr);
+    }
+
+    @Override
+    public void setLong(long val) {
+        context.memory.storeLong(addr, val);
+    }
+
     public int getAddress() {
         return addr;
     }
@@ -111,9 +156,9 @@ abstract class Address extends Operand {
 class BranchAddress extends Address {
     protected BranchAddress(Context context, DataType dataType) {
         super(context, dataType);
-        IntData offset = context.memory.load(context.register[PC], dataType);
+        int offset = context.memory.loadInt(context.register[PC], dataType);
         context.register[PC] += dataType.size;
-        this.addr = context.pc() + offset.sint();
+        this.addr = context.pc() + offset;
         this.len = dataType.size;
     }
 
@@ -130,10 +175,31 @@ class Literal extends Address {
         this.len = 1;
     }
 
+    @Override
+    public int getInt() {
+        switch (dataType) {
+        default:
+            return val;
+        case F:
+            return val << 4 | 0x4000;
+        }
+    }
+
+    @Override
+    public long getLong() {
+        switch (dataType) {
+        default:
+            return val;
+        case D:
+            return val << 4 | 0x4000;
+        case G:
+            return val << 1 | 0x4000;
+        }
+    }
+
     @Override
     public IntData getValue() {
         ByteBuffer bbuf = ByteBuffer.allocate(dataType.size).order(ByteOrder.LITTLE_ENDIAN);
-        int val = context.memory.load(addr, DataType.B).uint();
         switch (dataType) {
         default:
         case B: case W: case L: case Q: case O:
@@ -165,10 +231,18 @@ class Index extends Address {
         super(context, dataType);
         this.regNum = context.readText() & 0xf;
         this.baseAddress = (Address)fetchGeneralAddress(context, dataType);
-        this.addr = context.register[regNum] * dataType.size + baseAddress.addr;
         this.len = baseAddress.len() + 1;
     }
 
+    @Override public boolean isConstant() {
+        return false;
+    }
+
+    @Override public void resolve() {
+        baseAddress.resolve();
+        addr = context.register[regNum] * dataType.size + baseAddress.addr;
+    }
+
     private final int regNum;
     private final Address baseAddress;
     @Override public String mnemonic() {
@@ -195,6 +269,44 @@ class Register extends Operand {
         context.setRegisterValue(regNum, val);
     }
 
+    @Override
+    public int getInt() {
+        int val = context.register[regNum];
+        switch (dataType.size) {
+        case 1:
+            return (byte)val;
+        case 2:
+            return (short)val;
+        default:
+            return val;
+        }
+    }
+
+    @Override
+    public void setInt(int val) {
+        if (dataType.size >= 4) {
+            context.register[regNum] = val;
+        } else {
+            int mask = -1 << (dataType.size << 3);
+            context.register[regNum] &= mask;
+            context.register[regNum] |= val & ~mask;
+        }
+    }
+
+    @Override
+    public long getLong() {
+        long high = regNum < PC ? context.register[regNum + 1] : 0;
+        return high << 32 | context.register[regNum] & 0xffffffffL;
+    }
+
+    @Override
+    public void setLong(long val) {
+        context.register[regNum] = (int)val;
+        if (regNum < PC) {
+            context.register[regNum + 1] = (int)(val >>> 32);
+        }
+    }
+
     @Override public String mnemonic() {
         return regStr(regNum);
     }
@@ -204,10 +316,17 @@ class RegisterDeferred extends Address {
     protected RegisterDeferred(Context context, DataType dataType) {
         super(context, dataType);
         this.regNum = context.readText() & 0xf;
-        this.addr = context.register[regNum];
         this.len = 1;
     }
 
+    @Override public boolean isConstant() {
+        return false;
+    }
+
+    @Override public void resolve() {
+        addr = context.register[regNum];
+    }
+
     private final int regNum;
     @Override public String mnemonic() {
         return "(" + regStr(regNum) + ")";
@@ -218,11 +337,18 @@ class AutoDecrement extends Address {
     protected AutoDecrement(Context context, DataType dataType) {
         super(context, dataType);
         this.regNum = context.readText() & 0xf;
-        context.register[regNum] -= dataType.size;
-        this.addr = context.register[regNum];
         this.len = 1;
     }
 
+    @Override public boolean isConstant() {
+        return false;
+    }
+
+    @Override public void resolve() {
+        context.register[regNum] -= dataType.size;
+        addr = context.register[regNum];
+    }
+
     private final int regNum;
     @Override public String mnemonic() {
         return "-(" + regStr(regNum) + ")";
@@ -233,11 +359,25 @@ class AutoIncrement extends Address {
     protected AutoIncrement(Context context, DataType dataType) {
         super(context, dataType);
         this.regNum = context.readText() & 0xf;
-        this.addr = context.register[regNum];
-        context.register[regNum] += dataType.size;
+        if (isPC(regNum)) {
+            // immediate
+            this.addr = context.pc();
+            context.register[PC] += dataType.size;
+        }
         this.len = isPC(regNum) ? 1 + dataType.size : 1;
     }
 
+    @Override public boolean isConstant() {
+        return isPC(regNum);
+    }
+
+    @Override public void resolve() {
+        if (!isPC(regNum)) {
+            addr = context.register[regNum];
+            context.register[regNum] += dataType.size;
+        }
+    }
+
     private final int regNum;
     @Override public String mnemonic() {
         if (isPC(regNum)) {
@@ -253,11 +393,25 @@ class AutoIncrementDeferred extends Address {
     protected AutoIncrementDeferred(Context context, DataType dataType) {
         super(context, dataType);
         this.regNum = context.readText() & 0xf;
-        this.addr = context.memory.load(context.register[regNum], DataType.L).uint();
-        context.register[regNum] += 4;
+        if (isPC(regNum)) {
+            // absolute
+            this.addr = context.memory.loadInt(context.pc(), DataType.L);
+            context.register[PC] += 4;
+        }
         this.len = isPC(regNum) ? 5 : 1;
     }
 
+    @Override public boolean isConstant() {
+        return isPC(regNum);
+    }
+
+    @Override public void resolve() {
+        if (!isPC(regNum)) {
+            addr = context.memory.loadInt(context.register[regNum], DataType.L);
+            context.register[regNum] += 4;
+        }
+    }
+
     private final int regNum;
     @Override public String mnemonic() {
         if (isPC(regNum)) {
@@ -276,13 +430,25 @@ class Displacement extends Address {
         DataType dispType = size == 1 ? DataType.B :
                             size == 2 ? DataType.W :
                             /*      4*/ DataType.L;
-        this.disp = context.memory.load(context.register[PC], dispType).sint();
+        this.disp = context.memory.loadInt(context.register[PC], dispType);
         context.register[PC] += size;
         this.regNum = head & 0xf;
-        this.addr = disp + context.register[regNum];
+        if (isPC(regNum)) {
+            this.addr = disp + context.pc();
+        }
         this.len = 1 + size;
     }
 
+    @Override public boolean isConstant() {
+        return isPC(regNum);
+    }
+
+    @Override public void resolve() {
+        if (!isPC(regNum)) {
+            addr = disp + context.register[regNum];
+        }
+    }
+
     private final int disp;
     private final int regNum;
     @Override public String mnemonic() {
@@ -298,10 +464,18 @@ class DisplacementDeferred extends Address {
     protected DisplacementDeferred(Context context, DataType dataType) {
         super(context, dataType);
         this.displacement = new Displacement(context, dataType);
-        this.addr = context.memory.load(displacement.addr, DataType.L).uint();
         this.len = displacement.len();
     }
 
+    @Override public boolean isConstant() {
+        return false;
+    }
+
+    @Override public void resolve() {
+        displacement.resolve();
+        addr = context.memory.loadInt(displacement.addr, DataType.L);
+    }
+
     private final Address displacement;
     @Override public String mnemonic() {
         return "*" + displacement.mnemonic();
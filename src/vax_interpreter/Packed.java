@@ -0,0 +1,235 @@
+package vax_interpreter;
+
+import java.util.Arrays;
+
+/*
+ * A packed decimal string worked a byte at a time.
+ *
+ * A string of len digits takes len / 2 + 1 bytes, the sign in the low
+ * nibble of the last one. With that nibble read as 0 the bytes are the
+ * digits of ten times the magnitude, so every byte is one base 100 digit
+ * through the Pair table and the sign goes back in without a shift.
+ * Pairs are kept least significant first, with room for a 31 digit
+ * string shifted left by 31 and a carry.
+ */
+class Packed {
+    static final int MaxLength = 31;
+    private static final int Size = MaxLength + 2;
+
+    /* the byte of two BCD digits as 0-99, -1 when a nibble is not a digit */
+    private static final int[] Pair = new int[256];
+    private static final byte[] Bcd = new byte[100];
+    static {
+        Arrays.fill(Pair, -1);
+        for (int i = 0; i < 100; i++) {
+            Bcd[i] = (byte)(i / 10 << 4 | i % 10);
+            Pair[Bcd[i] & 0xff] = i;
+        }
+    }
+
+    private final int[] pairs = new int[Size];
+    private boolean negative;
+    private boolean lost;
+
+    public static Packed load(Context context, int addr, int len) {
+        assert len <= MaxLength : "Reserved operand fault";
+        int n = len / 2 + 1;
+        byte[] bytes = context.memory.loadBytes(addr, n);
+        int sign = bytes[n - 1] & 0xf;
+        assert sign >= 0xa : "Reserved operand fault";
+
+        Packed p = new Packed();
+        p.negative = sign == 0xb || sign == 0xd;
+        p.pairs[0] = digits(bytes[n - 1] & 0xf0);
+        for (int k = 1; k < n; k++) {
+            p.pairs[k] = digits(bytes[n - 1 - k] & 0xff);
+        }
+        if (len % 2 == 0) {
+            p.pairs[n - 1] %= 10;
+        }
+        return p;
+    }
+
+    private static int digits(int b) {
+        int pair = Pair[b];
+        assert pair >= 0 : "Reserved operand fault";
+        return Math.max(pair, 0);
+    }
+
+    public static Packed fromLong(long val) {
+        Packed p = new Packed();
+        p.negative = val < 0;
+        // the magnitude of Long.MIN_VALUE is still right taken unsigned
+        long m = Math.abs(val);
+        p.pairs[0] = (int)Long.remainderUnsigned(m, 10) * 10;
+        m = Long.divideUnsigned(m, 10);
+        for (int k = 1; m != 0; k++) {
+            p.pairs[k] = (int)(m % 100);
+            m /= 100;
+        }
+        return p;
+    }
+
+    /* the value in the low 64 bits, exact when fitsInt() */
+    public long toLong() {
+        long m = 0;
+        for (int k = Size - 1; k > 0; k--) {
+            m = m * 100 + pairs[k];
+        }
+        m = m * 10 + pairs[0] / 10;
+        return negative ? -m : m;
+    }
+
+    public boolean fitsInt() {
+        for (int k = 6; k < Size; k++) {
+            if (pairs[k] != 0) {
+                return false;
+            }
+        }
+        long val = toLong();
+        return val == (int)val;
+    }
+
+    public boolean isNegative() {
+        return negative && !isZero();
+    }
+
+    public boolean isZero() {
+        for (int pair : pairs) {
+            if (pair != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Stores len digits at addr and sets N, Z and V; C is left to the
+     * caller. Digits beyond len are lost and set V; only then may the
+     * string come out as -0.
+     */
+    public void store(Context context, int addr, int len) {
+        assert len <= MaxLength : "Reserved operand fault";
+        int n = len / 2 + 1;
+        boolean overflow = lost;
+        for (int k = n; k < Size; k++) {
+            overflow |= pairs[k] != 0;
+            pairs[k] = 0;
+        }
+        if (len % 2 == 0) {
+            overflow |= pairs[n - 1] >= 10;
+            pairs[n - 1] %= 10;
+        }
+        boolean zero = isZero();
+        boolean minus = negative && (!zero || overflow);
+
+        byte[] bytes = new byte[n];
+        for (int k = 0; k < n; k++) {
+            bytes[n - 1 - k] = Bcd[pairs[k]];
+        }
+        bytes[n - 1] |= minus ? 0xd : 0xc;
+        context.memory.storeBytes(addr, bytes, n);
+
+        context.flagN.set( minus );
+        context.flagZ.set( zero );
+        context.flagV.set( overflow );
+    }
+
+    public static int compare(Packed a, Packed b) {
+        boolean na = a.isNegative();
+        if (na != b.isNegative()) {
+            return na ? -1 : 1;
+        }
+        int c = compareMagnitude(a, b);
+        return na ? -c : c;
+    }
+
+    private static int compareMagnitude(Packed a, Packed b) {
+        for (int k = Size - 1; k >= 0; k--) {
+            if (a.pairs[k] != b.pairs[k]) {
+                return a.pairs[k] < b.pairs[k] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    public static Packed add(Packed a, Packed b) {
+        Packed p = new Packed();
+        if (a.negative == b.negative) {
+            p.negative = a.negative;
+            int carry = 0;
+            for (int k = 0; k < Size; k++) {
+                int s = a.pairs[k] + b.pairs[k] + carry;
+                carry = s >= 100 ? 1 : 0;
+                p.pairs[k] = s - carry * 100;
+            }
+            return p;
+        }
+        if (compareMagnitude(a, b) < 0) {
+            Packed t = a;
+            a = b;
+            b = t;
+        }
+        p.negative = a.negative;
+        int borrow = 0;
+        for (int k = 0; k < Size; k++) {
+            int s = a.pairs[k] - b.pairs[k] - borrow;
+            borrow = s < 0 ? 1 : 0;
+            p.pairs[k] = s + borrow * 100;
+        }
+        return p;
+    }
+
+    public static Packed sub(Packed a, Packed b) {
+        Packed p = new Packed();
+        System.arraycopy(b.pairs, 0, p.pairs, 0, Size);
+        p.negative = !b.negative;
+        return add(a, p);
+    }
+
+    /*
+     * The value times 10^count. Shifting right, round is added to the
+     * highest digit shifted out.
+     */
+    public Packed shift(int count, int round) {
+        Packed p = new Packed();
+        p.negative = negative;
+        if (count >= 0) {
+            // a whole pair for every two digits, then one digit more
+            int q = count / 2;
+            for (int k = 0; k < Size; k++) {
+                if (k + q < Size) {
+                    p.pairs[k + q] = pairs[k];
+                } else {
+                    p.lost |= pairs[k] != 0;
+                }
+            }
+            if (count % 2 != 0) {
+                p.lost |= p.pairs[Size - 1] >= 10;
+                for (int k = Size - 1; k >= 0; k--) {
+                    p.pairs[k] = p.pairs[k] % 10 * 10 + (k > 0 ? p.pairs[k - 1] / 10 : 0);
+                }
+            }
+            return p;
+        }
+
+        // keep one digit below the result to round from, in the units of pair 0
+        int q = -count / 2;
+        for (int k = 0; k + q < Size; k++) {
+            p.pairs[k] = pairs[k + q];
+        }
+        if (-count % 2 != 0) {
+            for (int k = 0; k < Size; k++) {
+                p.pairs[k] = p.pairs[k] / 10 + (k + 1 < Size ? p.pairs[k + 1] % 10 * 10 : 0);
+            }
+        }
+        int carry = p.pairs[0] % 10 + (round & 0xf) >= 10 ? 10 : 0;
+        p.pairs[0] = p.pairs[0] / 10 * 10;
+        for (int k = 0; k < Size && carry != 0; k++) {
+            int s = p.pairs[k] + carry;
+            carry = s >= 100 ? 1 : 0;
+            p.pairs[k] = s - carry * 100;
+        }
+        return p;
+    }
+}
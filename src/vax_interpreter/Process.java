@@ -2,33 +2,97 @@ package vax_interpreter;
 
 import java.util.*;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Paths;
 import static vax_interpreter.Kernel.Constant.*;
 
 class Process implements Runnable {
     public final Context context;
-    private static boolean debugFlag;
 
 
-    public Process(boolean debug, List<String> argStrs) throws IOException {
-        debugFlag = debug;
-        context = new Context();
+    public Process(boolean debug, List<String> argStrs, Job job) throws IOException {
+        context = new Context(job);
+        context.debug = debug;
 
-        String textPath = argStrs.get(0);
-        boolean loadTextFileSucceeded = context.memory.loadTextfile(textPath);
+        String textPath = Paths.get(job.cwd).resolve(argStrs.get(0)).toString();
+        boolean loadTextFileSucceeded = false;
+        try {
+            if (SyscallLog.recording || SyscallLog.replaying) {
+                loadTextFileSucceeded = context.memory.loadImage(SyscallLog.begin(textPath, argStrs, context));
+            } else {
+                loadTextFileSucceeded = context.memory.loadTextfile(textPath);
+            }
+        } finally {
+            if (!loadTextFileSucceeded) {
+                // the proc already holds a pid and the files of the job
+                Kernel.Sysent.exit(context, 0);
+            }
+        }
         if (!loadTextFileSucceeded) {
             throw new IllegalArgumentException("Can't read the program file.");
         }
 
         context.memory.setArgs(argStrs);
+        context.profiler = Profiler.start(textPath, context);
+        context.trace = Trace.start(textPath, context);
     }
 
-    public Process(Context parentContext) {
-        context = new Context(parentContext);
+    public Process(Context parentContext, Kernel.Proc proc) {
+        context = new Context(parentContext, proc);
+        context.debug = parentContext.debug;
+        if (parentContext.log != null) {
+            context.log = parentContext.log.child(context);
+        }
+        if (parentContext.profiler != null) {
+            context.profiler = Profiler.start(parentContext.profiler.path, context);
+        }
+        if (parentContext.trace != null) {
+            context.trace = Trace.start(parentContext.trace.path(), context);
+        }
+    }
+
+    /*
+     * Exit code of the process, valid once run() has returned.
+     * A process killed by a signal reports 128 + the signal number.
+     */
+    public int exitStatus() {
+        int xstat = context.u.u_procp.xp_xstat;
+        if ((xstat & 0x7f) != 0) {
+            return 128 + (xstat & 0x7f);
+        }
+        return (xstat >> 8) & 0xff;
     }
 
 
     @Override public void run() {
+        try {
+            execute();
+        } catch (Throwable e) {
+            crash(e);
+        }
+        if (context.trace != null) {
+            context.trace.finish();
+        }
+    }
+
+    private void execute() {
+        boolean debugFlag = context.debug;
+        Trace trace = context.trace;
         while (context.u.u_procp.p_stat == SRUN) {
+            int sig = context.u.u_procp.p_sig;
+            if (sig != 0) {
+                Kernel.Sysent.exit(context, sig);
+                break;
+            }
+            Profiler prof = context.profiler;
+            if (prof != null) {
+                prof.tick(context);
+            }
+            if (trace != null) {
+                trace.step(context);
+            }
+
             int pc = 0;
             String[] dump = null;
             if (debugFlag) {
@@ -36,16 +100,42 @@ class Process implements Runnable {
                 dump = dumpDatas();
             }
 
-            synchronized(Context.class) {
-                Instruction ins = Instruction.fetch(context);
+            Instruction ins = Instruction.fetch(context);
+            if (ins == null) {
+                throw new IllegalStateException("PC outside the text segment");
+            }
 
-                if (debugFlag) {
-                    printDebug(pc, ins, dump);
-                }
+            if (debugFlag) {
+                printDebug(pc, ins, dump);
+            }
+
+            ins.execute(context);
+        }
+    }
 
-                ins.execute(context);
+    /*
+     * The guest hit something the interpreter cannot go on with, such
+     * as a PC outside the text or a fault. It is reported on its stderr
+     * and killed as if by SIGILL, so that its pid, memory and files are
+     * released and whoever waits for it sees a failure.
+     */
+    private void crash(Throwable e) {
+        if (context.debug) {
+            e.printStackTrace(System.err);
+        }
+        if (context.u.u_procp.p_stat != SRUN) {
+            return;
+        }
+        FileItem err = context.u.u_ofile[2];
+        if (err != null) {
+            String msg = String.format("pc %08x: %s\n", context.pc(), e);
+            try {
+                err.write(new ByteBuffer[] { ByteBuffer.wrap(msg.getBytes()) });
+            } catch (FileItemException | RuntimeException ignored) {
+                // stderr is not writable; the status still tells
             }
         }
+        Kernel.Sysent.exit(context, SIGILL);
     }
 
     public String[] dumpDatas() {
@@ -92,3 +182,33 @@ class Process implements Runnable {
     }
 }
 
+/*
+ * What the first process of a run inherits from whoever started it:
+ * the standard files, the working directory and a fresh /tmp.
+ */
+class Job {
+    static final int MaxProcs = 30;
+
+    public final FileItem[] stdio;
+    public final String cwd;
+    public final TmpFs tmpfs = new TmpFs();
+    int procs;      // pids held, guarded by the proc table of Kernel
+
+    public Job(FileItem[] stdio, String cwd) {
+        this.stdio = stdio;
+        this.cwd = cwd;
+    }
+
+    public static Job console() {
+        Console console = new Console(Channels.newChannel(System.in),
+                                      Channels.newChannel(System.out),
+                                      Channels.newChannel(System.err));
+        // output left behind by a process that did not exit normally
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                console.flush();
+            } catch (IOException e) {}
+        }));
+        return new Job(console.stdio(), System.getProperty("user.dir"));
+    }
+}
@@ -0,0 +1,244 @@
+package vax_interpreter;
+
+import java.util.*;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import static vax_interpreter.Util.*;
+import static vax_interpreter.Kernel.Constant.*;
+
+/*
+ * Sampling profiler of a guest program, enabled by -prof <interval>.
+ *
+ * Every interval instructions the PC and the return addresses found by
+ * walking the frame pointer chain are recorded. When the image is left
+ * by exit or exec, the samples are mapped to the text symbols of the
+ * a.out and written to the working directory of the process as
+ *
+ *   <prog>.<pid>.prof     flat profile, samples per function
+ *   <prog>.<pid>.folded   collapsed stacks for flame graph tools
+ */
+class Profiler {
+    static int interval;    // 0: disabled
+
+    private static final int MaxDepth = 128;
+    // 32V frame: handler, mask/psw, AP, FP, PC
+    private static final int FrameSavedFp = 12;
+    private static final int FrameSavedPc = 16;
+
+    public final String path;
+    private final int[] hist;
+    private int outside;
+    private final Map<Stack, int[]> stacks = new HashMap<>();
+    private int countdown;
+
+    private Profiler(String path, int textSize) {
+        this.path = path;
+        this.hist = new int[textSize];
+        this.countdown = interval;
+    }
+
+    /*
+     * Profiler for the image just loaded from path, or null if disabled.
+     */
+    public static Profiler start(String path, Context context) {
+        if (interval <= 0) {
+            return null;
+        }
+        return new Profiler(path, context.memory.textSize);
+    }
+
+    /*
+     * Count the instruction about to be run from the current PC.
+     */
+    public void tick(Context context) {
+        if (--countdown <= 0) {
+            countdown = interval;
+            sample(context);
+        }
+    }
+
+    private void sample(Context context) {
+        int pc = context.pc();
+        if (0 <= pc && pc < hist.length) {
+            ++hist[pc];
+        } else {
+            ++outside;
+        }
+
+        int[] pcs = new int[MaxDepth];
+        int depth = 0;
+        pcs[depth++] = pc;
+        int fp = context.register[FP];
+        while (depth < MaxDepth && 0 < fp && fp <= MEM_SIZE - FrameSavedPc - NBPW) {
+            int ret = context.memory.loadInt(fp + FrameSavedPc, DataType.L);
+            int next = context.memory.loadInt(fp + FrameSavedFp, DataType.L);
+            if (ret <= 0 || ret > hist.length) {
+                break;
+            }
+            // the call is the instruction before the return address
+            pcs[depth++] = ret - 1;
+            if (next <= fp) {
+                break;
+            }
+            fp = next;
+        }
+
+        Stack key = new Stack(Arrays.copyOf(pcs, depth));
+        int[] count = stacks.get(key);
+        if (count == null) {
+            stacks.put(key, new int[] {1});
+        } else {
+            ++count[0];
+        }
+    }
+
+    /*
+     * Write the profile of pid into dir.
+     */
+    public void finish(String dir, int pid) {
+        Symbols syms = Symbols.read(path);
+        String base = Paths.get(dir, Paths.get(path).getFileName() + "." + pid).toString();
+
+        Map<String, Integer> flat = new HashMap<>();
+        int total = outside;
+        for (int pc = 0; pc < hist.length; pc++) {
+            if (hist[pc] != 0) {
+                flat.merge(syms.name(pc), hist[pc], Integer::sum);
+                total += hist[pc];
+            }
+        }
+        if (outside != 0) {
+            flat.put("?", outside);
+        }
+        if (total == 0) {
+            return;
+        }
+
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(flat.entrySet());
+        entries.sort((a, b) -> b.getValue() - a.getValue());
+        try (PrintStream out = new PrintStream(base + ".prof")) {
+            out.printf("%d samples, one per %d instructions%n", total, interval);
+            out.println("  %time   samples  name");
+            for (Map.Entry<String, Integer> e : entries) {
+                out.printf("%7.2f %9d  %s%n", 100.0 * e.getValue() / total, e.getValue(), e.getKey());
+            }
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+
+        Map<String, Integer> folded = new TreeMap<>();
+        for (Map.Entry<Stack, int[]> e : stacks.entrySet()) {
+            int[] pcs = e.getKey().pcs;
+            StringBuilder sb = new StringBuilder();
+            for (int i = pcs.length - 1; i >= 0; i--) {
+                sb.append(syms.name(pcs[i]));
+                if (i > 0) {
+                    sb.append(';');
+                }
+            }
+            folded.merge(sb.toString(), e.getValue()[0], Integer::sum);
+        }
+        try (PrintStream out = new PrintStream(base + ".folded")) {
+            for (Map.Entry<String, Integer> e : folded.entrySet()) {
+                out.println(e.getKey() + " " + e.getValue());
+            }
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static final class Stack {
+        final int[] pcs;
+        private final int hash;
+
+        Stack(int[] pcs) {
+            this.pcs = pcs;
+            this.hash = Arrays.hashCode(pcs);
+        }
+
+        @Override public int hashCode() {
+            return hash;
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof Stack && Arrays.equals(pcs, ((Stack)o).pcs);
+        }
+    }
+
+    /*
+     * Text symbols of an a.out, sorted by address.
+     */
+    static class Symbols {
+        private static final int AoutHeaderSize = 32;
+        private static final int SymbolSize = 16;
+        private static final int N_TEXT = 4;
+
+        private final int[] addrs;
+        private final String[] names;
+
+        private Symbols(int[] addrs, String[] names) {
+            this.addrs = addrs;
+            this.names = names;
+        }
+
+        static Symbols read(String path) {
+            TreeMap<Integer, String> syms = new TreeMap<>();
+            try (RandomAccessFile f = new RandomAccessFile(path, "r")) {
+                byte[] header = new byte[AoutHeaderSize];
+                f.readFully(header);
+                ByteBuffer hbuf = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+                int tsize = hbuf.getInt(4);
+                int dsize = hbuf.getInt(8);
+                int ssize = hbuf.getInt(16);
+                int trsize = hbuf.getInt(24);
+                int drsize = hbuf.getInt(28);
+
+                byte[] table = new byte[ssize];
+                f.seek((long)AoutHeaderSize + tsize + dsize + trsize + drsize);
+                f.readFully(table);
+                ByteBuffer sbuf = ByteBuffer.wrap(table).order(ByteOrder.LITTLE_ENDIAN);
+                for (int p = 0; p + SymbolSize <= ssize; p += SymbolSize) {
+                    int type = sbuf.get(p + 8) & 0x1e;
+                    if (type != N_TEXT) {
+                        continue;
+                    }
+                    int len = 0;
+                    while (len < 8 && table[p + len] != 0) {
+                        len++;
+                    }
+                    String name = new String(table, p, len, StandardCharsets.US_ASCII);
+                    int value = sbuf.getInt(p + 12);
+                    // prefer global names, and skip the file names of ld
+                    if (!name.endsWith(".o") && (!syms.containsKey(value) || (sbuf.get(p + 8) & 1) != 0)) {
+                        syms.put(value, name);
+                    }
+                }
+            } catch (IOException e) {
+                // stripped or unreadable: everything is "?"
+            }
+
+            int[] addrs = new int[syms.size()];
+            String[] names = new String[syms.size()];
+            int i = 0;
+            for (Map.Entry<Integer, String> e : syms.entrySet()) {
+                addrs[i] = e.getKey();
+                names[i] = e.getValue();
+                i++;
+            }
+            return new Symbols(addrs, names);
+        }
+
+        String name(int pc) {
+            int i = Arrays.binarySearch(addrs, pc);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            return i >= 0 ? names[i] : "?";
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package vax_interpreter;
+
+import java.util.*;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import vax_interpreter.Kernel.Sysent;
+import static vax_interpreter.Kernel.Constant.*;
+
+/*
+ * Record and replay of syscalls, enabled by -record FILE and -replay FILE.
+ *
+ * The log starts with the arguments, pid and image of the first process.
+ * Then comes every syscall with its arguments, the paths it names, its
+ * results and what it stored into guest memory: the data of read, the
+ * buffer of stat and the image loaded by exece. Each process has a
+ * stream of its own in the log, so the order in which the processes got
+ * to run does not matter.
+ *
+ * A replay runs from the log alone and touches no host file. Syscalls
+ * which only hand back results are not executed. exit, fork, wait,
+ * exece, sbreak and sig are, on the logged values: a child gets the pid
+ * it had, wait waits for the child it got then. A syscall other than
+ * the logged one, or one with other arguments or paths, ends the run.
+ * Nothing is written out.
+ */
+class SyscallLog {
+    static boolean recording;
+    static boolean replaying;
+
+    private static final int Magic = 0x5658524c;    // "VXRL"
+    private static final int StatSize = 32;
+
+    // images by id, and the id of the last image of each path
+    private static final List<byte[]> images = new ArrayList<>();
+    private static final Map<String, Integer> imageIds = new HashMap<>();
+
+    // recording; out also guards nextId and the image table
+    private static DataOutputStream out;
+    private static int nextId = 1;
+
+    // replaying
+    private static short firstPid;
+    private static byte[] firstImage;
+    private static final Map<Integer, ArrayDeque<Entry>> entries = new HashMap<>();
+
+    public static void record(String path) throws IOException {
+        out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(path), 1 << 16));
+        recording = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            synchronized (out) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                }
+            }
+        }));
+    }
+
+    /*
+     * Load the log at path, and return the arguments of the first process.
+     */
+    public static List<String> replay(String path) throws IOException {
+        List<String> argStrs = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                 new GZIPInputStream(new FileInputStream(path), 1 << 16)))) {
+            if (in.readInt() != Magic) {
+                throw new IOException(path + ": not a syscall log");
+            }
+            int argc = in.readInt();
+            for (int i = 0; i < argc; i++) {
+                argStrs.add(in.readUTF());
+            }
+            firstPid = in.readShort();
+            firstImage = readImage(in);
+
+            try {
+                while (true) {
+                    int id = in.readInt();
+                    Entry e = Entry.read(in);
+                    entries.computeIfAbsent(id, k -> new ArrayDeque<>()).add(e);
+                }
+            } catch (EOFException e) {
+                // the end, or where the recorded run was killed
+            }
+        }
+        replaying = true;
+        return argStrs;
+    }
+
+    /*
+     * Attach the first process, and return the image of path for it.
+     */
+    public static byte[] begin(String path, List<String> argStrs, Context context) throws IOException {
+        context.log = new Stream(0);
+        if (replaying) {
+            context.u.u_procp.renumber(firstPid);
+            return firstImage;
+        }
+
+        byte[] image = Files.readAllBytes(Paths.get(path));
+        synchronized (out) {
+            out.writeInt(Magic);
+            out.writeInt(argStrs.size());
+            for (String s : argStrs) {
+                out.writeUTF(s);
+            }
+            out.writeShort(context.u.u_procp.p_pid);
+            writeImage(path, image);
+        }
+        return image;
+    }
+
+    // a path seen before with the same contents is written as its id only
+    private static void writeImage(String path, byte[] image) throws IOException {
+        Integer id = imageIds.get(path);
+        if (id != null && Arrays.equals(images.get(id), image)) {
+            out.writeInt(id);
+            return;
+        }
+        imageIds.put(path, images.size());
+        out.writeInt(images.size());
+        out.writeInt(image.length);
+        out.write(image);
+        images.add(image);
+    }
+
+    private static byte[] readImage(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        if (id == images.size()) {
+            byte[] image = new byte[in.readInt()];
+            in.readFully(image);
+            images.add(image);
+        }
+        return images.get(id);
+    }
+
+    /*
+     * The paths named by the arguments of sysent, as the guest passed them.
+     */
+    private static String[] paths(Sysent sysent, int[] args, Context context) {
+        int n;
+        switch (sysent) {
+        case open:
+        case creat:
+        case unlink:
+        case chdir:
+        case chmod:
+        case stat:
+        case access:
+        case exece:
+            n = 1;
+            break;
+        case link:
+            n = 2;
+            break;
+        default:
+            n = 0;
+            break;
+        }
+        String[] paths = new String[n];
+        for (int i = 0; i < n; i++) {
+            byte[] strBytes = context.memory.loadStringBytes(args[i]);
+            paths[i] = new String(strBytes, 0, strBytes.length - 1, StandardCharsets.US_ASCII);
+        }
+        return paths;
+    }
+
+    private static String describe(Sysent sysent, int[] args, String[] paths) {
+        StringBuilder sb = new StringBuilder(sysent.toString());
+        sb.append('(');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(args[i]);
+            if (i < paths.length) {
+                sb.append(" \"").append(paths[i]).append('"');
+            }
+        }
+        return sb.append(')').toString();
+    }
+
+    private static class Entry {
+        int number;
+        int error;
+        int val1;
+        int val2;
+        int[] args;
+        String[] paths;
+        byte[] data;    // read, stat
+        int child;      // fork
+        String path;    // exece
+        byte[] image;
+
+        static Entry read(DataInputStream in) throws IOException {
+            Entry e = new Entry();
+            e.number = in.readUnsignedByte();
+            e.error = in.readUnsignedByte();
+            e.val1 = in.readInt();
+            e.val2 = in.readInt();
+            Sysent sysent = Sysent.getSysent(e.number);
+            e.args = new int[sysent.narg];
+            for (int i = 0; i < e.args.length; i++) {
+                e.args[i] = in.readInt();
+            }
+            e.paths = new String[in.readUnsignedByte()];
+            for (int i = 0; i < e.paths.length; i++) {
+                e.paths[i] = in.readUTF();
+            }
+            if (e.error != 0) {
+                return e;
+            }
+            switch (sysent) {
+            case read:
+                e.data = new byte[e.val1];
+                in.readFully(e.data);
+                break;
+            case stat:
+                e.data = new byte[StatSize];
+                in.readFully(e.data);
+                break;
+            case fork:
+                e.child = in.readInt();
+                break;
+            case exece:
+                e.path = in.readUTF();
+                e.image = readImage(in);
+                break;
+            }
+            return e;
+        }
+    }
+
+    /*
+     * The log of one process.
+     */
+    static class Stream {
+        private final int id;
+        private Entry current;      // the syscall being replayed
+        private int forked;         // id of the child of the current fork
+        private int[] callArgs;     // the syscall being recorded
+        private String[] callPaths;
+        private String execPath;    // image loaded by the current exece
+        private byte[] execImage;
+
+        private Stream(int id) {
+            this.id = id;
+        }
+
+        /*
+         * Stream of a child being forked; when replaying, the child also
+         * takes its logged pid.
+         */
+        Stream child(Context child) {
+            if (replaying) {
+                child.u.u_procp.renumber((short)current.val1);
+                return new Stream(current.child);
+            }
+            synchronized (out) {
+                forked = nextId++;
+            }
+            return new Stream(forked);
+        }
+
+        /*
+         * The image exece has just loaded from path.
+         */
+        void loaded(String path, byte[] image) {
+            execPath = path;
+            execImage = image;
+        }
+
+        /*
+         * Take the arguments and paths of a syscall about to be recorded,
+         * before it can change the memory they are in.
+         */
+        public void enter(Sysent sysent, int[] args, Context context) {
+            callArgs = Arrays.copyOf(args, sysent.narg);
+            callPaths = paths(sysent, args, context);
+        }
+
+        public void record(Sysent sysent, int[] args, Context context) {
+            int error = context.u.u_error;
+            int val1 = context.u.u_r.r_val1;
+            byte[] data = null;
+            byte[] image = null;
+            if (error == 0) {
+                switch (sysent) {
+                case read:
+                    data = context.memory.loadBytes(args[1], val1);
+                    break;
+                case stat:
+                    data = context.memory.loadBytes(args[1], StatSize);
+                    break;
+                case exece:
+                    image = execImage;
+                    execImage = null;
+                    break;
+                }
+            }
+
+            synchronized (out) {
+                try {
+                    out.writeInt(id);
+                    out.writeByte(sysent.number);
+                    out.writeByte(error);
+                    out.writeInt(val1);
+                    out.writeInt(context.u.u_r.r_val2);
+                    for (int arg : callArgs) {
+                        out.writeInt(arg);
+                    }
+                    out.writeByte(callPaths.length);
+                    for (String path : callPaths) {
+                        out.writeUTF(path);
+                    }
+                    if (data != null) {
+                        out.write(data);
+                    } else if (error == 0 && sysent == Sysent.fork) {
+                        out.writeInt(forked);
+                    } else if (image != null) {
+                        out.writeUTF(execPath);
+                        writeImage(execPath, image);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                }
+            }
+        }
+
+        public void replay(Sysent sysent, int[] args, Context context) {
+            ArrayDeque<Entry> q = entries.get(id);
+            Entry e = q == null ? null : q.poll();
+            if (e == null || e.number != sysent.number) {
+                System.err.printf("replay: pid %d called %s, the log has %s%n",
+                                  context.u.u_procp.p_pid, sysent,
+                                  e == null ? "no more" : Sysent.getSysent(e.number));
+                System.exit(1);
+            }
+            int[] callArgs = Arrays.copyOf(args, sysent.narg);
+            String[] callPaths = paths(sysent, args, context);
+            if (!Arrays.equals(callArgs, e.args) || !Arrays.equals(callPaths, e.paths)) {
+                System.err.printf("replay: pid %d called %s, the log has %s%n",
+                                  context.u.u_procp.p_pid, describe(sysent, callArgs, callPaths),
+                                  describe(sysent, e.args, e.paths));
+                System.exit(1);
+            }
+            current = e;
+
+            switch (sysent) {
+            case fork:
+                if (e.error != 0) {
+                    result(e, context);
+                    return;
+                }
+                sysent.call(args, context);
+                break;
+            case exit:
+            case sbreak:
+            case sig:
+                sysent.call(args, context);
+                break;
+            case wait:
+                if (e.error != 0) {
+                    result(e, context);
+                    return;
+                }
+                Sysent.waitChild(context, e.val1);
+                break;
+            case exece:
+                if (e.error != 0) {
+                    result(e, context);
+                    return;
+                }
+                Sysent.exec(args, e.path, e.image, context);
+                break;
+            default:
+                result(e, context);
+                if (e.data != null) {
+                    context.memory.storeBytes(args[1], e.data, e.data.length);
+                }
+                if (sysent == Sysent.write && e.error == EPIPE && context.u.u_signal[SIGPIPE] == 0) {
+                    Sysent.exit(context, SIGPIPE);
+                }
+                return;
+            }
+
+            if (context.u.u_error != e.error || context.u.u_r.r_val1 != e.val1) {
+                System.err.printf("replay: pid %d: %s returned %d, error %d; the log has %d, error %d%n",
+                                  context.u.u_procp.p_pid, sysent, context.u.u_r.r_val1,
+                                  context.u.u_error, e.val1, e.error);
+                System.exit(1);
+            }
+        }
+
+        private static void result(Entry e, Context context) {
+            context.u.u_error = e.error;
+            context.u.u_r.r_val1 = e.val1;
+            context.u.u_r.r_val2 = e.val2;
+        }
+    }
+}
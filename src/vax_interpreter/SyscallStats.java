@@ -0,0 +1,244 @@
+package vax_interpreter;
+
+import java.util.*;
+import java.io.PrintStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.ObjectName;
+import javax.management.JMException;
+import vax_interpreter.Kernel.Sysent;
+
+/*
+ * Syscall metrics, enabled by -stats.
+ *
+ * For every syscall: the number of calls, the errors by u_error, the
+ * latency as a log-linear histogram and, for read and write, the bytes
+ * moved. I/O is also totalled per file name; when more than MaxFiles
+ * names have come up, the half with the fewest bytes is dropped, so a
+ * long run does not keep every file it touched. The report is printed to
+ * stderr when the JVM exits and can be read at any time through the
+ * vax_interpreter:type=SyscallStats MBean.
+ */
+class SyscallStats implements SyscallStatsMBean {
+    static boolean enabled;
+
+    private static final int TopFiles = 10;
+    private static final int MaxFiles = 1000;
+    private static final long startNanos = System.nanoTime();
+    private static final Entry[] entries = new Entry[Sysent.values().length];
+    private static final Map<String, FileTotal> files = new ConcurrentHashMap<>();
+
+    static {
+        for (Sysent s : Sysent.values()) {
+            entries[s.ordinal()] = new Entry();
+        }
+    }
+
+    /*
+     * Start collecting: register the MBean and the report at exit.
+     */
+    public static void enable() {
+        enabled = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new SyscallStats(), new ObjectName("vax_interpreter:type=SyscallStats"));
+        } catch (JMException e) {
+            e.printStackTrace(System.err);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.print(report())));
+    }
+
+    @Override public String getReport() {
+        return report();
+    }
+
+    public static void record(Sysent sysent, Context context, FileItem f, long nanos) {
+        int error = context.u.u_error;
+        int bytes = 0;
+        if (error == 0 && (sysent == Sysent.read || sysent == Sysent.write)) {
+            bytes = context.u.u_r.r_val1;
+            if (f != null && f.name() != null) {
+                files.computeIfAbsent(f.name(), k -> new FileTotal())
+                     .add(sysent == Sysent.write, bytes);
+                if (files.size() > MaxFiles) {
+                    prune();
+                }
+            }
+        }
+        entries[sysent.ordinal()].add(error, bytes, nanos);
+    }
+
+    public static String report() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+
+        long inSyscalls = 0;
+        for (Entry e : entries) {
+            inSyscalls += e.nanos();
+        }
+        out.printf("--- syscalls: %.1f ms elapsed, %.1f ms in syscalls (wait included) ---%n",
+                   (System.nanoTime() - startNanos) / 1e6, inSyscalls / 1e6);
+        out.printf("%-8s %8s %7s %11s %10s %9s %9s %9s %9s%n",
+                   "syscall", "calls", "errors", "bytes", "total ms", "mean us", "p50 us", "p99 us", "max us");
+        for (Sysent s : Sysent.values()) {
+            entries[s.ordinal()].print(out, s.name());
+        }
+
+        List<String> top = byTotal();
+        if (!top.isEmpty()) {
+            out.printf("%-40s %8s %11s %8s %11s%n", "file", "reads", "read bytes", "writes", "write bytes");
+            for (String name : top.subList(0, Math.min(TopFiles, top.size()))) {
+                FileTotal t = files.get(name);
+                if (t != null) {
+                    t.print(out, name);
+                }
+            }
+        }
+        out.flush();
+        return bytes.toString();
+    }
+
+    /*
+     * Names of the files, the most bytes first. The totals are taken
+     * once, as they may go on changing while the names are sorted.
+     */
+    private static List<String> byTotal() {
+        Map<String, Long> totals = new HashMap<>();
+        files.forEach((name, t) -> totals.put(name, t.total()));
+        List<String> names = new ArrayList<>(totals.keySet());
+        names.sort((a, b) -> Long.compare(totals.get(b), totals.get(a)));
+        return names;
+    }
+
+    private static synchronized void prune() {
+        if (files.size() <= MaxFiles) {
+            return;
+        }
+        List<String> names = byTotal();
+        for (String name : names.subList(MaxFiles / 2, names.size())) {
+            files.remove(name);
+        }
+    }
+
+    private static class Entry {
+        private long calls;
+        private long bytes;
+        private final Map<Integer, Long> errors = new TreeMap<>();
+        private final Histogram latency = new Histogram();
+
+        synchronized void add(int error, int n, long nanos) {
+            ++calls;
+            bytes += n;
+            if (error != 0) {
+                errors.merge(error, 1L, Long::sum);
+            }
+            latency.add(nanos);
+        }
+
+        synchronized long nanos() {
+            return latency.total();
+        }
+
+        synchronized void print(PrintStream out, String name) {
+            if (calls == 0) {
+                return;
+            }
+            long nerrors = 0;
+            for (long n : errors.values()) {
+                nerrors += n;
+            }
+            out.printf("%-8s %8d %7d %11d %10.1f %9.1f %9.1f %9.1f %9.1f%n",
+                       name, calls, nerrors, bytes, latency.total() / 1e6,
+                       latency.total() / 1e3 / calls, latency.percentile(50) / 1e3,
+                       latency.percentile(99) / 1e3, latency.max() / 1e3);
+            if (!errors.isEmpty()) {
+                out.println("         errors " + errors);
+            }
+        }
+    }
+
+    private static class FileTotal {
+        private long reads, readBytes;
+        private long writes, writeBytes;
+
+        synchronized void add(boolean isWrite, int n) {
+            if (isWrite) {
+                ++writes;
+                writeBytes += n;
+            } else {
+                ++reads;
+                readBytes += n;
+            }
+        }
+
+        synchronized long total() {
+            return readBytes + writeBytes;
+        }
+
+        synchronized void print(PrintStream out, String name) {
+            if (name.length() > 40) {
+                name = "..." + name.substring(name.length() - 37);
+            }
+            out.printf("%-40s %8d %11d %8d %11d%n", name, reads, readBytes, writes, writeBytes);
+        }
+    }
+
+    /*
+     * Log-linear histogram of nanoseconds: exact below 16, then 8
+     * buckets per power of two, i.e. within 12.5%.
+     */
+    static class Histogram {
+        private static final int SubBits = 3;
+        private static final int Linear = 16;
+        private final long[] counts = new long[Linear + (64 - 4) * (1 << SubBits)];
+        private long count;
+        private long total;
+        private long max;
+
+        static int bucket(long v) {
+            if (v < Linear) {
+                return (int)v;
+            }
+            int msb = 63 - Long.numberOfLeadingZeros(v);
+            return Linear + (msb - 4) * (1 << SubBits) + (int)((v >>> (msb - SubBits)) & ((1 << SubBits) - 1));
+        }
+
+        static long lowerBound(int b) {
+            if (b < Linear) {
+                return b;
+            }
+            int msb = (b - Linear) / (1 << SubBits) + 4;
+            int sub = (b - Linear) % (1 << SubBits);
+            return ((1L << SubBits) + sub) << (msb - SubBits);
+        }
+
+        void add(long v) {
+            v = Math.max(v, 0);
+            ++counts[bucket(v)];
+            ++count;
+            total += v;
+            max = Math.max(max, v);
+        }
+
+        long total() {
+            return total;
+        }
+
+        long max() {
+            return max;
+        }
+
+        long percentile(double p) {
+            long rank = (long)Math.ceil(count * p / 100);
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank && counts[b] != 0) {
+                    return lowerBound(b);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package vax_interpreter;
+
+/*
+ * Live view of SyscallStats, e.g. from jconsole.
+ */
+public interface SyscallStatsMBean {
+    String getReport();
+}
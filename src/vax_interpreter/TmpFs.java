@@ -0,0 +1,240 @@
+package vax_interpreter;
+
+import java.util.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static vax_interpreter.Kernel.Constant.*;
+
+/*
+ * In-memory /tmp of one job.
+ *
+ * Every job started from outside gets its own, so the PID-based temp
+ * names of concurrent jobs never collide. The processes of the job share
+ * it through fork, and its files are dropped when the last of them exits.
+ * Only plain files directly under /tmp are kept here.
+ */
+class TmpFs {
+    private final Map<String, MemFile> files = new HashMap<>();
+    private int refCount = 1;
+
+    /*
+     * Name of the host path fname inside /tmp, "" for /tmp itself, or
+     * null if fname is elsewhere.
+     */
+    public static String key(String fname) {
+        Path tmpDir = Paths.get(Kernel.rootPath, "tmp").toAbsolutePath().normalize();
+        Path path = Paths.get(fname).toAbsolutePath().normalize();
+        if (!path.startsWith(tmpDir)) {
+            return null;
+        }
+        return tmpDir.relativize(path).toString();
+    }
+
+    public synchronized void addReference() {
+        ++refCount;
+    }
+
+    public synchronized void release() {
+        if (--refCount == 0) {
+            files.clear();
+        }
+    }
+
+    public synchronized FileItem open(String key, int mode) throws FileItemException {
+        if (key.isEmpty()) {
+            if ((mode & FWRITE) != 0) {
+                throw new RuntimeException("Writing dirctory file is not implemented.");
+            }
+            return FileItem.fromChannel(new DirChannel(new ArrayList<>(files.keySet())), mode);
+        }
+
+        MemFile file = files.get(key);
+        if (file == null) {
+            throw new FileItemException(ENOENT);
+        }
+        if ((mode & FREAD) != 0 && (file.mode & IREAD) == 0) {
+            throw new FileItemException(EACCES);
+        }
+        if ((mode & FWRITE) != 0 && (file.mode & IWRITE) == 0) {
+            throw new FileItemException(EACCES);
+        }
+        return FileItem.fromChannel(new MemChannel(file), mode);
+    }
+
+    public synchronized FileItem create(String key, int fmode) throws FileItemException {
+        if (key.isEmpty()) {
+            throw new FileItemException(EACCES);
+        }
+
+        MemFile file = files.get(key);
+        if (file == null) {
+            file = new MemFile(fmode);
+            files.put(key, file);
+        } else {
+            if ((file.mode & IWRITE) == 0) {
+                throw new FileItemException(EACCES);
+            }
+            file.truncate(0);
+        }
+        return FileItem.fromChannel(new MemChannel(file), FWRITE);
+    }
+
+    public synchronized MemFile lookup(String key) {
+        return files.get(key);
+    }
+
+    public synchronized void unlink(String key) throws FileItemException {
+        if (files.remove(key) == null) {
+            throw new FileItemException(ENOENT);
+        }
+    }
+
+    public synchronized void link(String target, String link) throws FileItemException {
+        MemFile file = files.get(target);
+        if (file == null) {
+            throw new FileItemException(ENOENT);
+        }
+        if (files.containsKey(link)) {
+            throw new FileItemException(EEXIST);
+        }
+        files.put(link, file);
+    }
+
+
+    /*
+     * Contents of a file, shared by all its names and open channels.
+     */
+    static class MemFile {
+        private byte[] data = new byte[0x1000];
+        private int size;
+        public int mode;
+        public long mtime;
+
+        MemFile(int mode) {
+            this.mode = mode;
+            this.mtime = System.currentTimeMillis();
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        synchronized void truncate(long newSize) {
+            if (newSize < size) {
+                size = (int)newSize;
+            }
+            mtime = System.currentTimeMillis();
+        }
+
+        /*
+         * A copy of the whole file, for exec.
+         */
+        synchronized byte[] contents() {
+            return Arrays.copyOf(data, size);
+        }
+
+        synchronized int read(long pos, ByteBuffer dst) {
+            if (pos >= size) {
+                return -1;
+            }
+            int len = (int)Math.min(size - pos, dst.remaining());
+            dst.put(data, (int)pos, len);
+            return len;
+        }
+
+        synchronized int write(long pos, ByteBuffer src) {
+            int len = src.remaining();
+            int end = (int)pos + len;
+            if (end > data.length) {
+                data = Arrays.copyOf(data, Math.max(end, data.length * 2));
+            }
+            if (pos > size) {
+                Arrays.fill(data, size, (int)pos, (byte)0);
+            }
+            src.get(data, (int)pos, len);
+            size = Math.max(size, end);
+            mtime = System.currentTimeMillis();
+            return len;
+        }
+    }
+
+    /*
+     * One open of a MemFile, with its own offset.
+     */
+    static class MemChannel implements SeekableByteChannel {
+        private final MemFile file;
+        private long position;
+        private boolean isOpen = true;
+
+        MemChannel(MemFile file) {
+            this.file = file;
+        }
+
+        @Override public int read(ByteBuffer dst) throws IOException {
+            if (!isOpen) {
+                throw new ClosedChannelException();
+            }
+            int len = file.read(position, dst);
+            if (len > 0) {
+                position += len;
+            }
+            return len;
+        }
+
+        @Override public int write(ByteBuffer src) throws IOException {
+            if (!isOpen) {
+                throw new ClosedChannelException();
+            }
+            int len = file.write(position, src);
+            position += len;
+            return len;
+        }
+
+        @Override public long position() throws IOException {
+            if (!isOpen) {
+                throw new ClosedChannelException();
+            }
+            return position;
+        }
+
+        @Override public SeekableByteChannel position(long newPosition) throws IOException {
+            if (!isOpen) {
+                throw new ClosedChannelException();
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override public long size() throws IOException {
+            if (!isOpen) {
+                throw new ClosedChannelException();
+            }
+            return file.size();
+        }
+
+        @Override public SeekableByteChannel truncate(long size) throws IOException {
+            if (!isOpen) {
+                throw new ClosedChannelException();
+            }
+            if (size < 0) {
+                throw new IllegalArgumentException();
+            }
+            file.truncate(size);
+            if (position > size) {
+                position = size;
+            }
+            return this;
+        }
+
+        @Override public boolean isOpen() {
+            return isOpen;
+        }
+
+        @Override public void close() {
+            isOpen = false;
+        }
+    }
+}
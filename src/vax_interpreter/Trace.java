@@ -0,0 +1,197 @@
+package vax_interpreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import static java.nio.file.StandardOpenOption.*;
+import static vax_interpreter.Util.*;
+
+/*
+ * Binary execution trace, enabled by -t FILE and printed by vaxtrace.
+ *
+ * Every process fills chunks of its own with a record per instruction.
+ * Full chunks are written out by a background thread, which falls
+ * behind by at most Chunks chunks before the processes wait for it. If
+ * writing fails, tracing stops: the records are dropped from then on and
+ * the thread goes on taking chunks, so no process is left waiting.
+ *
+ * file:   Magic, then chunks
+ * chunk:  pid (int), length of the records (int), records
+ * record: 0, PC (int), opcode (byte), mask (short), the registers
+ *         changed since the last record (int each, bit n of mask for
+ *         Rn), and the PSL (int) if it changed (bit 15)
+ *     or: 1, path of the image run from here on (UTF)
+ */
+class Trace {
+    private static final int Magic = 0x56585452;    // "VXTR"
+    private static final int ChunkSize = 1 << 16;
+    private static final int Chunks = 16;
+    private static final int Header = 8;
+    private static final int MaxRecord = 1 + 4 + 1 + 2 + 16 * 4;
+    private static final ByteBuffer End = ByteBuffer.allocate(0);
+
+    private static FileChannel out;
+    private static Thread writer;
+    private static volatile boolean failed;
+    private static final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(Chunks);
+    private static final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    private final int pid;
+    private ByteBuffer buf;
+    private final int[] last = new int[PC];
+    private int lastPsl;
+    private String path;
+
+    public static void open(String path) throws IOException {
+        out = FileChannel.open(Paths.get(path), CREATE, WRITE, TRUNCATE_EXISTING);
+        out.write(ByteBuffer.allocate(4).putInt(0, Magic));
+        writer = new Thread(Trace::drain, "trace");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Trace::close));
+    }
+
+    /*
+     * Trace of a process running the image at path, or null if tracing is off.
+     */
+    public static Trace start(String path, Context context) {
+        if (out == null) {
+            return null;
+        }
+        Trace t = new Trace(context.u.u_procp.p_pid);
+        t.image(path);
+        return t;
+    }
+
+    private Trace(int pid) {
+        this.pid = pid;
+        buf = chunk();
+    }
+
+    /*
+     * Record the instruction at PC, about to be run.
+     */
+    public void step(Context context) {
+        if (failed) {
+            return;
+        }
+        if (buf.remaining() < MaxRecord) {
+            submit();
+        }
+        int[] r = context.register;
+        int pc = r[PC];
+        buf.put((byte)0).putInt(pc).put((byte)context.memory.loadInt(pc, DataType.B));
+
+        int maskPos = buf.position();
+        buf.putShort((short)0);
+        int mask = 0;
+        for (int i = 0; i < PC; i++) {
+            if (r[i] != last[i]) {
+                last[i] = r[i];
+                buf.putInt(r[i]);
+                mask |= 1 << i;
+            }
+        }
+        int psl = context.getPsl();
+        if (psl != lastPsl) {
+            lastPsl = psl;
+            buf.putInt(psl);
+            mask |= 1 << 15;
+        }
+        buf.putShort(maskPos, (short)mask);
+    }
+
+    public void image(String path) {
+        this.path = path;
+        if (failed) {
+            return;
+        }
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        if (buf.remaining() < 3 + name.length) {
+            submit();
+        }
+        buf.put((byte)1).putShort((short)name.length).put(name);
+    }
+
+    public String path() {
+        return path;
+    }
+
+    /*
+     * Hand over the last records of the process.
+     */
+    public void finish() {
+        submit();
+        free.add(buf);
+        buf = null;
+    }
+
+    private void submit() {
+        if (buf.position() == Header) {
+            return;
+        }
+        if (failed) {
+            buf.position(Header);
+            return;
+        }
+        buf.putInt(0, pid).putInt(4, buf.position() - Header).flip();
+        while (true) {
+            try {
+                full.put(buf);
+                break;
+            } catch (InterruptedException e) {}
+        }
+        buf = chunk();
+    }
+
+    private static ByteBuffer chunk() {
+        ByteBuffer b = free.poll();
+        if (b == null) {
+            b = ByteBuffer.allocate(ChunkSize);
+        }
+        b.clear().position(Header);
+        return b;
+    }
+
+    private static void drain() {
+        try {
+            ByteBuffer b;
+            while ((b = full.take()) != End) {
+                try {
+                    while (!failed && b.hasRemaining()) {
+                        out.write(b);
+                    }
+                } catch (IOException e) {
+                    System.err.println("trace: " + e.getMessage() + ", tracing stopped");
+                    failed = true;
+                    // let go of the processes waiting to put
+                    while ((b = full.poll()) != null) {
+                        if (b == End) {
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                free.add(b);
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    private static void close() {
+        try {
+            full.put(End);
+            writer.join();
+            out.close();
+        } catch (InterruptedException | IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+}
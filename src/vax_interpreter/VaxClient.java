@@ -0,0 +1,111 @@
+package vax_interpreter;
+
+import java.util.*;
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+/*
+ * Thin client of the server mode.
+ *
+ * usage: VaxClient socket [interpreter options] file [args...]
+ *
+ * The run is handed to the server listening on socket. If there is
+ * none, the interpreter is started in this JVM instead.
+ */
+public class VaxClient {
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("No socket.");
+        }
+        String[] interpArgs = Arrays.copyOfRange(args, 1, args.length);
+
+        SocketChannel ch;
+        try {
+            ch = SocketChannel.open(UnixDomainSocketAddress.of(Paths.get(args[0])));
+        } catch (IOException e) {
+            VaxInterpreter.main(interpArgs);
+            return;
+        }
+
+        // the server has its own root
+        int argi;
+        for (argi = 0; argi < interpArgs.length; argi++) {
+            if (interpArgs[argi].equals("-record") || interpArgs[argi].equals("-replay") ||
+                interpArgs[argi].equals("-t") || interpArgs[argi].equals("-prof") ||
+                interpArgs[argi].equals("-d") || interpArgs[argi].equals("-stats")) {
+                // the output is written by the JVM of the run
+                try {
+                    ch.close();
+                } catch (IOException e) {}
+                VaxInterpreter.main(interpArgs);
+                return;
+            } else if (interpArgs[argi].equals("-rp") || interpArgs[argi].equals("-server")) {
+                ++argi;
+            } else {
+                break;
+            }
+        }
+        List<String> processArgs = Arrays.asList(Arrays.copyOfRange(interpArgs, argi, interpArgs.length));
+        if (processArgs.isEmpty()) {
+            throw new IllegalArgumentException("No input file.");
+        }
+
+        try {
+            System.exit(run(ch, processArgs));
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+
+    private static int run(SocketChannel ch, List<String> argv) throws IOException {
+        ByteArrayOutputStream req = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(req);
+        out.writeInt(argv.size());
+        for (String arg : argv) {
+            out.writeUTF(arg);
+        }
+        out.writeUTF(System.getProperty("user.dir"));
+        Daemon.writeFully(ch, ByteBuffer.wrap(req.toByteArray()));
+
+        Thread feeder = new Thread(() -> feedStdin(ch));
+        feeder.setDaemon(true);
+        feeder.start();
+
+        DataInputStream in = new DataInputStream(Daemon.inputStream(ch));
+        while (true) {
+            byte type = in.readByte();
+            int len = in.readInt();
+            if (type == Daemon.EXIT) {
+                System.out.flush();
+                return len;
+            }
+            byte[] b = new byte[len];
+            in.readFully(b);
+            PrintStream ps = type == Daemon.STDERR ? System.err : System.out;
+            ps.write(b, 0, len);
+            ps.flush();
+        }
+    }
+
+    private static void feedStdin(SocketChannel ch) {
+        byte[] b = new byte[4096];
+        try {
+            int len;
+            while ((len = System.in.read(b)) > 0) {
+                synchronized (ch) {
+                    Daemon.writeFrame(ch, Daemon.STDIN, b, 0, len);
+                }
+            }
+            synchronized (ch) {
+                Daemon.writeFrame(ch, Daemon.STDIN, b, 0, 0);
+            }
+        } catch (IOException e) {
+            // the run has finished
+        }
+    }
+}
@@ -1,36 +1,99 @@
 package vax_interpreter;
 
 import java.util.*;
+import java.io.File;
 import java.io.IOException;
+import static vax_interpreter.Util.*;
 
 public class VaxInterpreter {
 
     public static void main(String[] args) {
         boolean debugFlag = false;
+        String socketPath = null;
+        String replayPath = null;
         List<String> processArgs;
 
         int argi;
         for (argi = 0; argi < args.length; argi++) {
             if (args[argi].equals("-d")) {
                 debugFlag = true;
+            } else if (args[argi].equals("-stats")) {
+                SyscallStats.enable();
             } else if (args[argi].equals("-rp")) {
                 if (argi + 1 > args.length - 1) {
                     throw new IllegalArgumentException(args[argi]);
                 }
                 ++argi;
-                Kernel.rootPath = args[argi];
+                Kernel.rootPath = new File(args[argi]).getAbsolutePath();
+            } else if (args[argi].equals("-prof")) {
+                if (argi + 1 > args.length - 1) {
+                    throw new IllegalArgumentException(args[argi]);
+                }
+                ++argi;
+                Profiler.interval = Integer.parseInt(args[argi]);
+            } else if (args[argi].equals("-t")) {
+                if (argi + 1 > args.length - 1) {
+                    throw new IllegalArgumentException(args[argi]);
+                }
+                ++argi;
+                try {
+                    Trace.open(args[argi]);
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                    return;
+                }
+            } else if (args[argi].equals("-record")) {
+                if (argi + 1 > args.length - 1) {
+                    throw new IllegalArgumentException(args[argi]);
+                }
+                ++argi;
+                try {
+                    SyscallLog.record(args[argi]);
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                    return;
+                }
+            } else if (args[argi].equals("-replay")) {
+                if (argi + 1 > args.length - 1) {
+                    throw new IllegalArgumentException(args[argi]);
+                }
+                ++argi;
+                replayPath = args[argi];
+            } else if (args[argi].equals("-server")) {
+                if (argi + 1 > args.length - 1) {
+                    throw new IllegalArgumentException(args[argi]);
+                }
+                ++argi;
+                socketPath = args[argi];
             } else {
                 break;
             }
         }
 
+        if (socketPath != null) {
+            try {
+                Daemon.serve(socketPath);
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+            }
+            return;
+        }
+
         processArgs = Arrays.asList(Arrays.copyOfRange(args, argi, args.length));
+        if (replayPath != null) {
+            try {
+                processArgs = SyscallLog.replay(replayPath);
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+                return;
+            }
+        }
         if (processArgs.isEmpty()) {
             throw new IllegalArgumentException("No input file.");
         }
 
         try {
-            Process newProc = new Process(debugFlag, processArgs);
+            Process newProc = new Process(debugFlag, processArgs, Job.console());
             new Thread(newProc).start();
         } catch (IOException e) {
             e.printStackTrace(System.err);
@@ -41,14 +104,52 @@ public class VaxInterpreter {
 class Instruction {
     public final Opcode opcode;
     public final List<Operand> operands;
+    private final int length;
+    private final Operand[] unresolved;
 
     protected Instruction(Opcode opc, List<Operand> oprs) {
         this.opcode = opc;
         this.operands = oprs;
+
+        int l = opc.len();
+        List<Operand> dynamic = new ArrayList<>();
+        for (Operand opr : oprs) {
+            l += opr.len();
+            if (!opr.isConstant()) {
+                dynamic.add(opr);
+            }
+        }
+        this.length = l;
+        this.unresolved = dynamic.toArray(new Operand[dynamic.size()]);
     }
 
+    /*
+     * Fetch the instruction at PC.
+     * Decoded instructions are kept in the per-image cache of the memory,
+     * so only the operand specifiers are evaluated again on later visits.
+     */
     public static Instruction fetch(Context context) {
+        int pc = context.pc();
+        Instruction ins = context.memory.getDecoded(pc);
+        if (ins == null) {
+            ins = decode(context);
+            if (ins == null) {
+                return null;
+            }
+            context.memory.putDecoded(pc, ins);
+        } else {
+            context.register[PC] = pc + ins.length;
+        }
+
+        ins.resolve();
+        return ins;
+    }
+
+    private static Instruction decode(Context context) {
         Opcode opc = Opcode.fetch(context);
+        if (opc == null) {
+            return null;
+        }
 
         List<Operand> oprs = new ArrayList<>(opc.operands().length);
         for (DataType type : opc.operands()) {
@@ -62,6 +163,12 @@ class Instruction {
         return new Instruction(opc, oprs);
     }
 
+    private void resolve() {
+        for (Operand opr : unresolved) {
+            opr.resolve();
+        }
+    }
+
     public void execute(Context context) {
         opcode.execute(operands, context);
     }
@@ -81,11 +188,7 @@ class Instruction {
     }
 
     public int len() {
-        int l = opcode.len();
-        for (Operand opr : operands) {
-            l += opr.len();
-        }
-        return l;
+        return length;
     }
 }
 
@@ -94,7 +197,8 @@ class Util {
     public static final int FP = 0xd;
     public static final int SP = 0xe;
     public static final int PC = 0xf;
-    public static final int MEM_SIZE = 0x80000;
+    public static final int MEM_SIZE = 0x1000000;   // virtual, pages are allocated on demand
+    public static final int MAX_STACK = 0x100000;   // top of MEM_SIZE kept free of the heap
 
     // Debug
     public static void printVal(byte[] val) {
@@ -1,7 +1,12 @@
 // This file is licensed under the CC0.
 package vaxrun;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -1210,6 +1215,21 @@ class VAX {
     private final Stack<AddrSym> callStack = new Stack<>();
     private int mode;
 
+    // registers saved by each entry mask, lowest first
+    private static final int[][] saveRegs = new int[0x1000][];
+
+    static {
+        for (int mask = 0; mask < saveRegs.length; ++mask) {
+            int[] regs = new int[Integer.bitCount(mask)];
+            for (int i = 0, j = 0; i < 12; ++i) {
+                if ((mask & (1 << i)) != 0) {
+                    regs[j++] = i;
+                }
+            }
+            saveRegs[mask] = regs;
+        }
+    }
+
     public VAX() {
         aout = null;
         mode = 1;
@@ -1249,6 +1269,28 @@ class VAX {
         }
     }
 
+    // offset of the first byte == b (!= b if eq is false) in len bytes at ad, 8 bytes at a time
+    public int scan(int ad, int len, int b, boolean eq) {
+        final long ones = 0x0101010101010101L;
+        long pattern = (b & 0xff) * ones;
+        int i = 0;
+        for (; i + 8 <= len; i += 8) {
+            long x = buf.getLong(ad + i) ^ pattern;
+            if (eq) {
+                x = (x - ones) & ~x & ones << 7;
+            }
+            if (x != 0) {
+                return i + (Long.numberOfTrailingZeros(x) >>> 3);
+            }
+        }
+        for (; i < len; ++i) {
+            if ((mem[ad + i] == (byte) b) == eq) {
+                return i;
+            }
+        }
+        return len;
+    }
+
     public void setNZVC(boolean n, boolean z, boolean v, boolean c) {
         this.n = n;
         this.z = z;
@@ -1556,23 +1598,33 @@ class VAX {
         }
     }
 
+    private static final byte[] bcd = new byte[100];
+
+    static {
+        for (int i = 0; i < bcd.length; ++i) {
+            bcd[i] = (byte) (i / 10 << 4 | i % 10);
+        }
+    }
+
     public void cvtlp(int src, int dstlen, int dstaddr) {
         int len = (dstlen >> 1) + 1;
         int d = dstaddr + len - 1;
-        Arrays.fill(mem, dstaddr, d, (byte) 0);
-        mem[d] = (byte) (src < 0 ? 13 : 12);
-        int tmp = Math.abs(src);
-        for (int i = 0; i < dstlen && tmp > 0; ++i) {
-            byte b = (byte) (Integer.remainderUnsigned(tmp, 10));
-            if ((i & 1) == 0) {
-                mem[d] |= b << 4;
-            } else {
-                mem[--d] = b;
+        long tmp = Math.abs((long) src);
+        int sign = src < 0 ? 13 : 12;
+        if (dstlen == 0) {
+            mem[d] = (byte) sign;
+        } else {
+            mem[d] = (byte) (tmp % 10 << 4 | sign);
+            tmp /= 10;
+            // two digits a byte, but only one in the first of an even length
+            for (int i = d - 1; i >= dstaddr; --i) {
+                int m = i > dstaddr || (dstlen & 1) == 1 ? 100 : 10;
+                mem[i] = bcd[(int) (tmp % m)];
+                tmp /= m;
             }
-            tmp = Integer.divideUnsigned(tmp, 10);
         }
         r[0] = r[1] = r[2] = 0;
-        r[3] = d;
+        r[3] = dstaddr;
         setNZVC(src < 0, src == 0, tmp > 0, false);
         if (mode >= 2) {
             StringBuilder sb = new StringBuilder();
@@ -1584,7 +1636,8 @@ class VAX {
         }
     }
 
-    private void editpcDebug(String cmd) {
+    // the repeat count is printed unless it is negative
+    private void editpcDebug(String cmd, int rep) {
         if (mode < 2) {
             return;
         }
@@ -1592,6 +1645,9 @@ class VAX {
                 r[0], r[1], r[2], r[4], r[5],
                 n ? 'N' : '-', z ? 'Z' : '-', v ? 'V' : '-', c ? 'C' : '-',
                 r[3], cmd);
+        if (rep >= 0) {
+            System.err.print(" " + rep);
+        }
         System.err.println();
     }
 
@@ -1623,10 +1679,10 @@ class VAX {
             int b = Byte.toUnsignedInt(mem[r[3]]);
             switch (b) {
                 case 0:
-                    editpcDebug("eo$end");
+                    editpcDebug("eo$end", -1);
                     break OUTER;
                 case 1:
-                    editpcDebug("eo$end_float");
+                    editpcDebug("eo$end_float", -1);
                     if (!c) {
                         c = true;
                         r[4] = r[1];
@@ -1637,7 +1693,7 @@ class VAX {
             int rep = b & 15;
             switch (b >> 4) {
                 case 0x9:
-                    editpcDebug("eo$move " + rep);
+                    editpcDebug("eo$move", rep);
                     for (int i = 0; i < rep; ++i) {
                         int oldr1 = r[1], num = editpcRead();
                         if (num != 0 && !c) {
@@ -1649,7 +1705,7 @@ class VAX {
                     }
                     break;
                 case 0xa:
-                    editpcDebug("eo$float " + rep);
+                    editpcDebug("eo$float", rep);
                     for (int i = 0; i < rep; ++i) {
                         int oldr1 = r[1], num = editpcRead();
                         if (num != 0 && !c) {
@@ -1698,12 +1754,9 @@ class VAX {
                 push(4, s1);
                 tmp = r[SP];
                 r[SP] &= ~3;
-                if ((d & 0xfff) != 0) {
-                    for (int i = 11, bit = 0x800; i >= 0; --i, bit >>= 1) {
-                        if ((d & bit) != 0) {
-                            push(4, r[i]);
-                        }
-                    }
+                int[] regs = saveRegs[d & 0xfff];
+                for (int i = regs.length - 1; i >= 0; --i) {
+                    push(4, r[regs[i]]);
                 }
                 push(4, r[PC]);
                 push(4, r[FP]);
@@ -1732,12 +1785,8 @@ class VAX {
                 r[AP] = pop(4);
                 r[FP] = pop(4);
                 r[PC] = pop(4);
-                if ((tmp & 0xfff0000) != 0) {
-                    for (int i = 0, bit = 0x10000; i <= 11; ++i, bit <<= 1) {
-                        if ((tmp & bit) != 0) {
-                            r[i] = pop(4);
-                        }
-                    }
+                for (int reg : saveRegs[(tmp >> 16) & 0xfff]) {
+                    r[reg] = pop(4);
                 }
                 r[SP] += (tmp >> 30) & 3;
                 if ((tmp & 0x2000) != 0) { // calls
@@ -2079,20 +2128,18 @@ class VAX {
                 s1 = getOperand(1);
                 r[0] = getOperand(2);
                 r[1] = getAddress(1);
-                while (r[0] != 0 && mem[r[1]] != s1) {
-                    --r[0];
-                    ++r[1];
-                }
+                d = scan(r[1], r[0] & 0xffff, s1, true);
+                r[0] = (r[0] & 0xffff) - d;
+                r[1] += d;
                 setNZVC(false, r[0] == 0, false, false);
                 break;
             case 0x3b: // skpc
                 s1 = getOperand(1);
                 r[0] = getOperand(2);
                 r[1] = getAddress(1);
-                while (r[0] != 0 && mem[r[1]] == s1) {
-                    --r[0];
-                    ++r[1];
-                }
+                d = scan(r[1], r[0] & 0xffff, s1, false);
+                r[0] = (r[0] & 0xffff) - d;
+                r[1] += d;
                 setNZVC(false, r[0] == 0, false, false);
                 break;
             default:
@@ -2139,6 +2186,114 @@ class VAX {
     }
 }
 
+class VAXTrace {
+
+    private static final int MAGIC = 0x56585452; // "VXTR"
+
+    // state of a traced process
+    private static class Proc {
+
+        final int[] r = new int[16];
+        int psl;
+        AOut aout;
+        VAXDisasm dis;
+    }
+
+    private final HashMap<Integer, Proc> procs = new HashMap<>();
+    private final HashMap<String, AOut> aouts = new HashMap<>();
+    private final PrintStream out;
+
+    private VAXTrace(PrintStream out) {
+        this.out = out;
+    }
+
+    // print a trace of vax_interpreter -t in the format of VAX.debug
+    public static void print(String path, PrintStream out) throws IOException {
+        VAXTrace t = new VAXTrace(out);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + ": not a trace");
+            }
+            int cur = -1;
+            for (;;) {
+                int pid;
+                try {
+                    pid = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                byte[] chunk = new byte[in.readInt()];
+                in.readFully(chunk);
+                if (pid != cur) {
+                    out.printf("[pid %d]", pid);
+                    out.println();
+                    cur = pid;
+                }
+                t.chunk(pid, new DataInputStream(new ByteArrayInputStream(chunk)));
+            }
+        }
+        out.flush();
+    }
+
+    private void chunk(int pid, DataInputStream in) throws IOException {
+        Proc p = procs.get(pid);
+        if (p == null) {
+            p = new Proc();
+            procs.put(pid, p);
+        }
+        while (in.available() > 0) {
+            if (in.readByte() != 0) {
+                load(p, in.readUTF());
+                continue;
+            }
+            int pc = in.readInt();
+            int op = in.readUnsignedByte();
+            int mask = in.readUnsignedShort();
+            for (int i = 0; i < 15; ++i) {
+                if ((mask & 1 << i) != 0) {
+                    p.r[i] = in.readInt();
+                }
+            }
+            if ((mask & 0x8000) != 0) {
+                p.psl = in.readInt();
+            }
+            p.r[15] = pc;
+            String asm = p.aout != null && pc < p.aout.a_text
+                    ? p.dis.disasm1(pc) : String.format(".byte 0x%02x", op);
+            out.printf("%08x %08x %08x %08x-%08x %08x %08x %08x-%08x %08x %08x %08x-%08x %08x %08x %c%c%c%c %08x %s",
+                    p.r[0], p.r[1], p.r[2], p.r[3], p.r[4], p.r[5], p.r[6], p.r[7],
+                    p.r[8], p.r[9], p.r[10], p.r[11], p.r[12], p.r[13], p.r[14],
+                    (p.psl & 8) != 0 ? 'N' : '-', (p.psl & 4) != 0 ? 'Z' : '-',
+                    (p.psl & 2) != 0 ? 'V' : '-', (p.psl & 1) != 0 ? 'C' : '-',
+                    pc, asm);
+            out.println();
+        }
+    }
+
+    private void load(Proc p, String path) {
+        out.printf("[%s]", path);
+        out.println();
+        AOut aout = aouts.get(path);
+        if (aout == null && !aouts.containsKey(path)) {
+            try {
+                aout = new AOut(path);
+            } catch (Exception ex) {
+                System.err.println(path + ": " + ex.getMessage());
+            }
+            aouts.put(path, aout);
+        }
+        p.aout = aout;
+        p.dis = null;
+        if (aout != null) {
+            // text only, with room for operands at its end
+            ByteBuffer buf = ByteBuffer.wrap(Arrays.copyOf(aout.text, aout.a_text + 64))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            p.dis = new VAXDisasm(buf, aout, p.r);
+        }
+    }
+}
+
 public class Main {
 
     static final void repl() {
@@ -2169,7 +2324,7 @@ public class Main {
     }
 
     public static void main(String[] args) {
-        boolean disasm = false, memdump = false;
+        boolean disasm = false, memdump = false, trace = false;
         int mode = 0;
         String target = null;
         String[] args2 = null;
@@ -2192,6 +2347,9 @@ public class Main {
                 case "-e":
                     memdump = true;
                     break;
+                case "-t":
+                    trace = true;
+                    break;
                 case "-r":
                     repl();
                     return;
@@ -2209,9 +2367,14 @@ public class Main {
             System.err.println("    -v a.out [args ...]: verbose mode (output syscall and disassemble)");
             System.err.println("    -s a.out [args ...]: syscall mode (output syscall)");
             System.err.println("    -r: read-eval-print loop (repl)");
+            System.err.println("    -t trace: print a trace of vax_interpreter -t");
             System.exit(1);
         }
         try {
+            if (trace) {
+                VAXTrace.print(target, new PrintStream(new BufferedOutputStream(System.out, 1 << 16)));
+                return;
+            }
             AOut aout = new AOut(target);
             if (memdump) {
                 aout.dump(System.out);
@@ -0,0 +1,9 @@
+main()
+{
+	int (*f)();
+
+	printf("before\n");
+	f = (int (*)())0x100000;
+	(*f)();
+	printf("after\n");
+}
@@ -0,0 +1,69 @@
+#!/bin/sh
+# a guest that crashes dies of SIGILL (status 132) and a program that
+# cannot be loaded fails with status 1; neither may leak its pid: run more
+# of them through one server than there are pids, then check a normal run
+# still works
+SOCK=`pwd`/vaxrun.sock
+java -cp ../build/classes vax_interpreter/VaxInterpreter -rp ../root -server $SOCK &
+SERVER=$!
+trap "kill $SERVER" 0
+sleep 2
+i=0
+while [ $i -lt 40 ]; do
+	java -cp ../build/classes vax_interpreter/VaxClient $SOCK -rp ../root ./crash > /dev/null 2>&1
+	status=$?
+	if [ $status -ne 132 ]; then
+		echo "crash $i: exit status $status"
+		exit 1
+	fi
+	i=`expr $i + 1`
+done
+i=0
+while [ $i -lt 40 ]; do
+	err=`java -cp ../build/classes vax_interpreter/VaxClient $SOCK -rp ../root ./missing 2>&1`
+	case "$err" in
+	*missing*) ;;
+	*)
+		echo "missing $i: $err"
+		exit 1;;
+	esac
+	i=`expr $i + 1`
+done
+out=`java -cp ../build/classes vax_interpreter/VaxClient $SOCK -rp ../root ../cmd/nm ../cmd/nm | head -1`
+if [ -z "$out" ]; then
+	echo "no output after the failed runs"
+	exit 1
+fi
+
+# a job that forks until it cannot gets EAGAIN (11) from fork
+out=`java -cp ../build/classes vax_interpreter/VaxClient $SOCK -rp ../root ./forks`
+if [ "$out" != "29 forks, errno 11" ]; then
+	echo "forks: $out"
+	exit 1
+fi
+
+# a program written to the in-memory /tmp can be run from there
+out=`java -cp ../build/classes vax_interpreter/VaxClient $SOCK -rp ../root ./tmpexec`
+if [ "$out" != "ran from /tmp/tmpexec" ]; then
+	echo "tmpexec: $out"
+	exit 1
+fi
+
+# a job whose client has gone is killed: the server goes idle again
+cpu() {
+	awk '{ print $14 + $15 }' /proc/$SERVER/stat
+}
+java -cp ../build/classes vax_interpreter/VaxClient $SOCK -rp ../root ./spin &
+CLIENT=$!
+sleep 2
+kill $CLIENT
+wait $CLIENT
+sleep 1
+before=`cpu`
+sleep 2
+used=`expr \`cpu\` - $before`
+if [ $used -gt 50 ]; then
+	echo "spin: $used ticks used after its client has gone"
+	exit 1
+fi
+echo "ok"
@@ -0,0 +1,23 @@
+/* fork until there is no process left, then let the children go */
+main()
+{
+	int p[2], n, pid;
+	char c;
+
+	pipe(p);
+	for (n = 0; ; n++) {
+		pid = tryfork();
+		if (pid < 0) {
+			printf("%d forks, errno %d\n", n, -pid);
+			close(p[1]);
+			while (wait(0) != -1)
+				;
+			exit(0);
+		}
+		if (pid == 0) {
+			close(p[1]);
+			read(p[0], &c, 1);
+			exit(0);
+		}
+	}
+}
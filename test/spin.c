@@ -0,0 +1,5 @@
+main()
+{
+	for (;;)
+		;
+}
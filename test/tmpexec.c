@@ -0,0 +1,21 @@
+/* copy this program into /tmp and run the copy */
+main(argc, argv)
+char **argv;
+{
+	char buf[512];
+	int in, out, n;
+
+	if (argc > 1) {
+		printf("ran from %s\n", argv[0]);
+		exit(0);
+	}
+	in = open(argv[0], 0);
+	out = creat("/tmp/tmpexec", 0755);
+	while ((n = read(in, buf, sizeof buf)) > 0)
+		write(out, buf, n);
+	close(in);
+	close(out);
+	execl("/tmp/tmpexec", "/tmp/tmpexec", "again", 0);
+	printf("exec failed\n");
+	exit(1);
+}
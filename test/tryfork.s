@@ -0,0 +1,15 @@
+# fork that reports a failure: the fork of libc tests r1 first, which
+# clears C, so it takes the error number for a pid
+	.globl	_tryfork
+_tryfork:
+	.word	0x0000
+	chmk	$2
+	bcs	err
+	tstl	r1
+	beql	parent
+	clrl	r0
+parent:
+	ret
+err:
+	mnegl	r0,r0
+	ret